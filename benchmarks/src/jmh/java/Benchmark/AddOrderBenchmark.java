@@ -0,0 +1,106 @@
+package Benchmark;
+
+import CommonClass.CompraVendita;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import static Benchmark.Books.HUGE;
+import static Benchmark.Books.MID;
+import static Benchmark.Books.fillBook;
+import static Benchmark.Books.fillStops;
+import static Benchmark.Books.order;
+
+/*
+ * CompraVendita.addOrder per i tre tipi di ordine. Il book di CompraVendita è statico:
+ * ogni combinazione di benchmark e parametri gira nel proprio fork e parte da un book vuoto
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class AddOrderBenchmark {
+
+    /* depth livelli per lato con quantità 10: i limit order che non incrociano restano nel book */
+    @State(Scope.Benchmark)
+    public static class RestingBook {
+        @Param({"10", "1000"})
+        int depth;
+
+        CompraVendita compraVendita;
+        int i;
+
+        @Setup(Level.Trial)
+        public void setup() {
+            compraVendita = new CompraVendita();
+            fillBook(compraVendita, depth, 10);
+        }
+    }
+
+    /* depth livelli per lato con quantità che i market order non esauriscono */
+    @State(Scope.Benchmark)
+    public static class DeepBook {
+        @Param({"10", "1000"})
+        int depth;
+
+        CompraVendita compraVendita;
+        int i;
+
+        @Setup(Level.Trial)
+        public void setup() {
+            compraVendita = new CompraVendita();
+            fillBook(compraVendita, depth, HUGE);
+        }
+    }
+
+    /* Come RestingBook, con stops stop order già in attesa */
+    @State(Scope.Benchmark)
+    public static class StopBook {
+        @Param({"10", "1000"})
+        int depth;
+
+        @Param({"100", "10000"})
+        int stops;
+
+        CompraVendita compraVendita;
+        int i;
+
+        @Setup(Level.Trial)
+        public void setup() {
+            compraVendita = new CompraVendita();
+            fillBook(compraVendita, depth, 10);
+            fillStops(compraVendita, depth, stops);
+        }
+    }
+
+    /* Limit order che non incrociano, alternati tra i due lati su tutti i livelli esistenti */
+    @Benchmark
+    public Set<Integer> limit(RestingBook book) {
+        int i = book.i++;
+        return (i & 1) == 0
+                ? book.compraVendita.addOrder(order("bid", "limit", 1, MID - 1 - (i >> 1) % book.depth, 0))
+                : book.compraVendita.addOrder(order("ask", "limit", 1, MID + 1 + (i >> 1) % book.depth, 0));
+    }
+
+    /* Market order di quantità 1 contro la migliore controparte, alternati tra i due lati */
+    @Benchmark
+    public Set<Integer> market(DeepBook book) {
+        return book.compraVendita.addOrder(order((book.i++ & 1) == 0 ? "bid" : "ask", "market", 1, 0, 0));
+    }
+
+    /* Stop order che restano in attesa */
+    @Benchmark
+    public Set<Integer> stop(StopBook book) {
+        int i = book.i++;
+        return (i & 1) == 0
+                ? book.compraVendita.addOrder(order("bid", "stop", 1, 0, MID + book.depth + 1 + (i >> 1) % 1000))
+                : book.compraVendita.addOrder(order("ask", "stop", 1, 0, MID - book.depth - 1 - (i >> 1) % 1000));
+    }
+}
@@ -0,0 +1,42 @@
+package Benchmark;
+
+import CommonClass.CompraVendita;
+import Server.Order;
+
+/* Ordini e book di partenza condivisi dai benchmark */
+final class Books {
+    static final int MID = 1_000_000;       // Prezzo attorno a cui si costruisce il book
+    static final int HUGE = 1 << 30;        // Quantità che nessun benchmark riesce a esaurire
+
+    // Ogni fork di JMH è una JVM nuova: gli id partono da 1 e non si ripetono, come richiesto da addOrder
+    private static int nextOrderId = 1;
+
+    private Books() {}
+
+    static int nextOrderId() {
+        return nextOrderId++;
+    }
+
+    static Order order(String side, String orderType, int size, int price, int stopPrice) {
+        return new Order(nextOrderId++, "bench", side, orderType, size, price, stopPrice, System.currentTimeMillis());
+    }
+
+    // depth livelli per lato attorno a MID, un ordine di quantità size per livello
+    static void fillBook(CompraVendita compraVendita, int depth, int size) {
+        for (int i = 1; i <= depth; i++) {
+            compraVendita.addOrder(order("bid", "limit", size, MID - i, 0));
+            compraVendita.addOrder(order("ask", "limit", size, MID + i, 0));
+        }
+    }
+
+    // stops stop order in attesa, metà per lato, con trigger oltre l'ultimo livello del book
+    static void fillStops(CompraVendita compraVendita, int depth, int stops) {
+        for (int i = 0; i < stops; i++) {
+            if (i % 2 == 0) {
+                compraVendita.addOrder(order("bid", "stop", 1, 0, MID + depth + 1 + i / 2));
+            } else {
+                compraVendita.addOrder(order("ask", "stop", 1, 0, MID - depth - 1 - i / 2));
+            }
+        }
+    }
+}
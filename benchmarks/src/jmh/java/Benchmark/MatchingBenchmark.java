@@ -0,0 +1,89 @@
+package Benchmark;
+
+import CommonClass.CompraVendita;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import static Benchmark.Books.HUGE;
+import static Benchmark.Books.MID;
+import static Benchmark.Books.fillBook;
+import static Benchmark.Books.fillStops;
+import static Benchmark.Books.order;
+
+/* Matching su più livelli e attivazione degli stop order (processStopOrders) */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class MatchingBenchmark {
+    private static final int SWEEP = 10;    // Livelli attraversati da sweep
+
+    /* depth livelli per lato con quantità 1: sweep svuota i primi SWEEP livelli di ask */
+    @State(Scope.Benchmark)
+    public static class SweepBook {
+        @Param({"10", "1000"})
+        int depth;
+
+        CompraVendita compraVendita;
+        int levels;
+
+        @Setup(Level.Trial)
+        public void setup() {
+            compraVendita = new CompraVendita();
+            levels = Math.min(SWEEP, depth);
+            fillBook(compraVendita, depth, 1);
+        }
+
+        // I livelli consumati vengono ricostruiti fuori misura; l'operazione dura decine di microsecondi,
+        // quindi il costo di Level.Invocation resta trascurabile
+        @TearDown(Level.Invocation)
+        public void refill() {
+            for (int level = 1; level <= levels; level++) {
+                compraVendita.addOrder(order("ask", "limit", 1, MID + level, 0));
+            }
+        }
+    }
+
+    /* Book che gli stop attivati non esauriscono, con stops altri stop in attesa */
+    @State(Scope.Benchmark)
+    public static class StopBook {
+        @Param({"10", "1000"})
+        int depth;
+
+        @Param({"100", "10000"})
+        int stops;
+
+        CompraVendita compraVendita;
+        int i;
+
+        @Setup(Level.Trial)
+        public void setup() {
+            compraVendita = new CompraVendita();
+            fillBook(compraVendita, depth, HUGE);
+            fillStops(compraVendita, depth, stops);
+        }
+    }
+
+    /* Un limit bid che attraversa SWEEP livelli di ask, un trade per livello */
+    @Benchmark
+    public Set<Integer> sweep(SweepBook book) {
+        return book.compraVendita.addOrder(order("bid", "limit", book.levels, MID + book.levels, 0));
+    }
+
+    /* Stop order che si attivano subito (trigger al prezzo migliore) */
+    @Benchmark
+    public Set<Integer> triggerStop(StopBook book) {
+        return (book.i++ & 1) == 0
+                ? book.compraVendita.addOrder(order("bid", "stop", 1, 0, MID + 1))
+                : book.compraVendita.addOrder(order("ask", "stop", 1, 0, MID - 1));
+    }
+}
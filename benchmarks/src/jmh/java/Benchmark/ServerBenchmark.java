@@ -0,0 +1,97 @@
+package Benchmark;
+
+import CommonClass.CompraVendita;
+import Server.HashUtils;
+import Server.OperationRequest;
+import Server.Operazioni;
+import Server.OrderRequest;
+import Server.RequestDecoder;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import static Benchmark.Books.HUGE;
+import static Benchmark.Books.MID;
+import static Benchmark.Books.fillBook;
+
+/* Percorsi del server attorno al book: ordine completo con persistenza, decodifica delle richieste, hash delle password */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class ServerBenchmark {
+    private static final String LIMIT_ORDER = "{\"operation\": \"limitorder\", \"requestId\": 42, \"values\": "
+            + "{\"side\": \"bid\", \"size\": 10, \"price\": 58000000, \"username\": \"bench\", \"orderId\": 1234}}";
+    private static final String SALT = HashUtils.generateSalt(16);
+
+    /*
+     * Book con journal, snapshot e nastro dei trade in src/Document sotto la directory di lavoro del fork
+     * (benchmarks/ con gradle jmh). Se src/Document esiste già, ad esempio lanciando il jar dalla radice
+     * del progetto, il benchmark si rifiuta di partire per non toccare i dati del server
+     */
+    @State(Scope.Benchmark)
+    public static class PersistedBook {
+        @Param({"10", "1000"})
+        int depth;
+
+        final File documents = new File("src/Document");
+        final PrintWriter out = new PrintWriter(Writer.nullWriter());
+        CompraVendita compraVendita;
+        int i;
+
+        @Setup(Level.Trial)
+        public void setup() throws Exception {
+            if (documents.exists()) {
+                throw new IllegalStateException(documents.getAbsolutePath() + " esiste già: lanciare i benchmark da un'altra directory");
+            }
+            Files.createDirectories(documents.toPath());
+            compraVendita = new CompraVendita();
+            compraVendita.initializeOrderBook();
+            fillBook(compraVendita, depth, HUGE);
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() throws IOException {
+            try (Stream<Path> files = Files.walk(documents.toPath())) {
+                files.sorted(Comparator.reverseOrder()).forEach(file -> file.toFile().delete());
+            }
+        }
+    }
+
+    /* Operazioni.LimitOrder completo: ogni ordine incrocia la migliore controparte e produce un trade */
+    @Benchmark
+    public OrderRequest limitOrderPersisted(PersistedBook book) {
+        OrderRequest request = (book.i++ & 1) == 0
+                ? new OrderRequest("limitorder", "bench", Books.nextOrderId(), "bid", 1, MID + 1, 0)
+                : new OrderRequest("limitorder", "bench", Books.nextOrderId(), "ask", 1, MID - 1, 0);
+        Operazioni.LimitOrder(request, book.out, book.compraVendita);
+        return request;
+    }
+
+    /* Decodifica di una richiesta limitorder come arriva dalla connessione */
+    @Benchmark
+    public OperationRequest decodeLimitOrder() throws IOException {
+        return RequestDecoder.decode(LIMIT_ORDER);
+    }
+
+    /* Hash della password come in login e registrazione */
+    @Benchmark
+    public String hashPassword() {
+        return HashUtils.computeSHA256Hash("password", SALT);
+    }
+}
@@ -6,6 +6,7 @@ import java.net.Socket;
 import java.util.Scanner;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.function.Consumer;
 
 import static java.lang.System.out;
 
@@ -25,7 +26,12 @@ public class CLI{
     private final Gson gson = new Gson();
 
     public CLI(Socket socket) throws Exception {
-        this.metodi = new CROSSClient(socket);
+        this(socket, username -> {});
+    }
+
+    // onLogin viene chiamato con il token UDP rilasciato dal server a ogni login riuscito (registrazione per le notifiche)
+    public CLI(Socket socket, Consumer<String> onLogin) throws Exception {
+        this.metodi = new CROSSClient(socket, onLogin);
     }
 
     /**
@@ -8,22 +8,54 @@ import java.net.Socket;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.function.Consumer;
 
 public class CROSSClient {
     private final Socket socket;
     private final PrintWriter out;
     private final BufferedReader in;
     private final Gson gson = new Gson();
+    private final Consumer<String> onLogin; // Avvisato con il token UDP dopo ogni login riuscito
 
     // Variabile per tener traccia dell'utente loggato
     private String currentUsername = null;
+    private long nextRequestId = 1; // Id di correlazione riportato dal server nella risposta
 
     public CROSSClient(Socket socket) throws IOException {
+        this(socket, username -> {});
+    }
+
+    public CROSSClient(Socket socket, Consumer<String> onLogin) throws IOException {
+        this.onLogin = onLogin;
         this.socket = socket;
         this.out = new PrintWriter(socket.getOutputStream(), true);
         this.in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
     }
 
+    // Aggiunge alla richiesta un requestId nuovo e lo restituisce
+    private long tagRequest(Map<String, Object> request) {
+        long requestId = nextRequestId++;
+        request.put("requestId", requestId);
+        return requestId;
+    }
+
+    /**
+     * Legge la risposta alla richiesta requestId, scartando quelle arrivate in ritardo
+     * per richieste precedenti
+     */
+    private String readResponse(long requestId) throws IOException {
+        String line;
+        while ((line = in.readLine()) != null) {
+            Map<?, ?> response = gson.fromJson(line, Map.class);
+            Object id = response == null ? null : response.get("requestId");
+            if (id == null || ((Number) id).longValue() == requestId) {
+                return line;
+            }
+            System.out.println("Risposta a una richiesta precedente ignorata: " + line);
+        }
+        return null;
+    }
+
     /**
      * Metodo per la registrazione di un nuovo utente.
      */
@@ -54,13 +86,14 @@ public class CROSSClient {
         values.put("password", password);
 
         request.put("values", values);
+        long requestId = tagRequest(request);
         String jsonRequest = gson.toJson(request);
 
         System.out.println("JSON inviato al server: " + jsonRequest);
         out.println(jsonRequest);
 
         try {
-            String serverResponse = in.readLine();
+            String serverResponse = readResponse(requestId);
             System.out.println("JSON ricevuto dal server: " + serverResponse);
 
             ConcurrentHashMap<String, Object> response = gson.fromJson(serverResponse, ConcurrentHashMap.class);
@@ -97,13 +130,14 @@ public class CROSSClient {
         values.put("password", password);
 
         request.put("values", values);
+        long requestId = tagRequest(request);
         String jsonRequest = gson.toJson(request);
 
         System.out.println("JSON inviato al server: " + jsonRequest);
         out.println(jsonRequest);
 
         try {
-            String serverResponse = in.readLine();
+            String serverResponse = readResponse(requestId);
             System.out.println("JSON ricevuto dal server: " + serverResponse);
 
             ConcurrentHashMap<String, Object> response = gson.fromJson(serverResponse, ConcurrentHashMap.class);
@@ -113,6 +147,8 @@ public class CROSSClient {
             if (responseCode == 100) {
                 System.out.println("Login completato con successo!");
                 currentUsername = username;
+                String udpToken = (String) response.get("udpToken");
+                if (udpToken != null) onLogin.accept(udpToken);
                 return true;
             } else {
                 System.out.println("Errore: " + errorMessage);
@@ -140,13 +176,14 @@ public class CROSSClient {
         values.put("username", currentUsername);
 
         request.put("values", values);
+        long requestId = tagRequest(request);
         String jsonRequest = gson.toJson(request);
 
         System.out.println("JSON inviato al server: " + jsonRequest);
         out.println(jsonRequest);
 
         try {
-            String serverResponse = in.readLine();
+            String serverResponse = readResponse(requestId);
             System.out.println("JSON ricevuto dal server: " + serverResponse);
 
             ConcurrentHashMap<String, Object> response = gson.fromJson(serverResponse, ConcurrentHashMap.class);
@@ -193,7 +230,7 @@ public class CROSSClient {
         // Costruzione della richiesta JSON
         ConcurrentMap<String, Object> request = new ConcurrentHashMap<>();
         ConcurrentHashMap<String, Object> values = new ConcurrentHashMap<>();
-        int orderId = new Random().nextInt(100000); // Genera ID ordine casuale (o logica tua)
+        int orderId = new Random().nextInt(1_000_000_000) + 1; // ID casuale: il server rifiuta con 409 un orderId già in uso
 
         values.put("username", currentUsername);
         values.put("orderId", orderId);
@@ -218,6 +255,7 @@ public class CROSSClient {
         }
 
         request.put("values", values);
+        long requestId = tagRequest(request);
         String jsonRequest = gson.toJson(request);
 
         // Invio
@@ -226,7 +264,7 @@ public class CROSSClient {
 
         // Ricezione risposta
         try {
-            String serverResponse = in.readLine();
+            String serverResponse = readResponse(requestId);
             System.out.println("JSON ricevuto dal server: " + serverResponse);
 
             ConcurrentHashMap<String, Object> response = gson.fromJson(serverResponse, ConcurrentHashMap.class);
@@ -255,13 +293,14 @@ public class CROSSClient {
 
         // Creazione della richiesta JSON per cancellare l'ordine
         ConcurrentHashMap<String, Object> request = new ConcurrentHashMap<>();
-        request.put("operation", "deleteorder");
+        request.put("operation", "cancelorder");
 
         ConcurrentHashMap<String, Object> values = new ConcurrentHashMap<>();
         values.put("username", currentUsername);
         values.put("orderId", orderId);
 
         request.put("values", values);
+        long requestId = tagRequest(request);
         String jsonRequest = gson.toJson(request);
 
         // Invio al server
@@ -269,7 +308,7 @@ public class CROSSClient {
         out.println(jsonRequest);
 
         try {
-            String serverResponse = in.readLine();
+            String serverResponse = readResponse(requestId);
             System.out.println("JSON ricevuto dal server: " + serverResponse);
 
             ConcurrentHashMap<String, Object> response = gson.fromJson(serverResponse, ConcurrentHashMap.class);
@@ -301,80 +340,69 @@ public class CROSSClient {
             return;
         }
 
-        // Creazione richiesta JSON per history
-        Map<String, Object> request = new HashMap<>();
-        request.put("operation", "history");
-
-        Map<String, Object> values = new HashMap<>();
-        values.put("date", date);
-        values.put("username", currentUsername);
-
-        request.put("values", values);
-        String jsonRequest = gson.toJson(request);
-
-        out.println(jsonRequest);
-        System.out.println("JSON inviato al server: " + jsonRequest);
-
+        // Lo storico arriva a pagine, ognuna in più righe: si stampa man mano senza accumularlo
+        int cursor = 0;
+        int printed = 0;
         try {
-            String serverResponse = in.readLine();
-            System.out.println("JSON ricevuto dal server: " + serverResponse);
-
-            Type mapType = new TypeToken<Map<String, Object>>() {}.getType();
-            Map<String, Object> response = gson.fromJson(serverResponse, mapType);
-
-            if (response == null || !response.containsKey("response")) {
-                System.out.println("Errore: risposta non valida dal server.");
-                return;
-            }
-
-            double responseCode = (double) response.get("response");
-            if (responseCode != 100) {
-                System.out.println("Errore: " + response.get("errorMessage"));
-                return;
-            }
-
-            String fileName = (String) response.get("file");
-            File file = new File(fileName);
-
-            if (!file.exists()) {
-                System.out.println("Errore: il file storico non esiste.");
-                return;
-            }
-
-            // Lettura file storico
-            List<Map<String, String>> orders;
-            try (BufferedReader reader = new BufferedReader(new FileReader(file))) {
-                orders = gson.fromJson(reader, new TypeToken<List<Map<String, String>>>() {}.getType());
+            while (cursor >= 0) {
+                Map<String, Object> request = new HashMap<>();
+                request.put("operation", "history");
+
+                Map<String, Object> values = new HashMap<>();
+                values.put("date", date);
+                values.put("username", currentUsername);
+                values.put("cursor", cursor);
+
+                request.put("values", values);
+                long requestId = tagRequest(request);
+                out.println(gson.toJson(request));
+
+                HistoryChunk chunk;
+                do {
+                    String serverResponse = readResponse(requestId);
+                    chunk = serverResponse == null ? null : gson.fromJson(serverResponse, HistoryChunk.class);
+                    if (chunk == null) {
+                        System.out.println("Errore: risposta non valida dal server.");
+                        return;
+                    }
+                    if (chunk.response != 100) {
+                        System.out.println("Errore: " + chunk.errorMessage);
+                        return;
+                    }
+                    if (chunk.orders != null) {
+                        for (Map<String, String> order : chunk.orders) {
+                            if (printed++ == 0) System.out.println("Storico ordini:");
+                            System.out.println("ID Ordine: " + order.get("orderID"));
+                            System.out.println("Tipo: " + order.get("type"));
+                            System.out.println("Side: " + order.get("side"));
+                            System.out.println("Dimensione: " + order.get("size"));
+                            System.out.println("Prezzo: " + order.get("price"));
+                            System.out.println("Data: " + order.get("date"));
+                            System.out.println("--------------------------------------");
+                        }
+                    }
+                } while (!chunk.last);
+                cursor = chunk.nextCursor;
             }
 
-            if (orders != null && !orders.isEmpty()) {
-                System.out.println("Storico ordini:");
-                for (Map<String, String> order : orders) {
-                    System.out.println("ID Ordine: " + order.get("orderID"));
-                    System.out.println("Tipo: " + order.get("type"));
-                    System.out.println("Side: " + order.get("side"));
-                    System.out.println("Dimensione: " + order.get("size"));
-                    System.out.println("Prezzo: " + order.get("price"));
-                    System.out.println("Data: " + order.get("date"));
-                    System.out.println("--------------------------------------");
-                }
-            } else {
+            if (printed == 0) {
                 System.out.println("Nessun ordine trovato per la data specificata.");
             }
-
-            // Cancella file locale
-            if (file.delete()) {
-                System.out.println("DEBUG CLIENT: File " + fileName + " eliminato dopo la lettura.");
-            } else {
-                System.out.println("Errore nella cancellazione del file.");
-            }
-
         } catch (IOException e) {
             System.out.println("Errore di comunicazione con il server.");
             e.printStackTrace();
         }
     }
 
+    // Una riga della risposta history
+    private static class HistoryChunk {
+        int response;
+        String errorMessage;
+        List<Map<String, String>> orders;
+        boolean last = true; // Le risposte di errore non hanno il campo e chiudono la pagina
+        int nextCursor = -1;
+    }
+
     protected synchronized void handleUpdate(Scanner scanner) {
         if (currentUsername == null) {
             System.out.println("Effettua prima il login o la registrazione.");
@@ -402,13 +430,14 @@ public class CROSSClient {
         values.put("newPassword", newPassword);
 
         request.put("values", values);
+        long requestId = tagRequest(request);
         String jsonRequest = gson.toJson(request);
 
         System.out.println("JSON inviato al server: " + jsonRequest);
         out.println(jsonRequest);
 
         try {
-            String serverResponse = in.readLine();
+            String serverResponse = readResponse(requestId);
             System.out.println("JSON ricevuto dal server: " + serverResponse);
 
             ConcurrentHashMap<String, Object> response = gson.fromJson(serverResponse, ConcurrentHashMap.class);
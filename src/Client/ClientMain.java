@@ -9,14 +9,15 @@ import java.net.DatagramPacket;
 import java.net.DatagramSocket;
 import java.net.InetAddress;
 import java.net.Socket;
+import java.nio.charset.StandardCharsets;
 import java.util.concurrent.ConcurrentHashMap;
 
 public class ClientMain {
     private String host;
     private int port;
-    private static final int SERVER_UDP_PORT = 6000; // Porta del server per registrazioni UDP
-    private static final int CLIENT_UDP_PORT = 5000; // Porta su cui il client riceve notifiche
-    private int userId; // L'ID dell'utente viene recuperato da ClientIDGenerator
+    private static final int DEFAULT_UDP_PORT = 6000; // Porta UDP del server se Connection.json non la indica
+    private int udpPort; // Porta del server per registrazioni UDP (udpPort del server)
+    private DatagramSocket notificationSocket; // Riceve le notifiche; la registrazione parte dalla stessa socket
 
     // Costruttore per leggere i dati dal file JSON e ottenere l'ID del client
     public ClientMain() {
@@ -26,30 +27,29 @@ public class ClientMain {
 
             this.host = map.get("host").toString();
             this.port = (int) Double.parseDouble(map.get("port").toString());
+            this.udpPort = map.containsKey("udpPort") ? (int) Double.parseDouble(map.get("udpPort").toString()) : DEFAULT_UDP_PORT;
 
-            // Recupera l'ID generato dinamicamente
-            this.userId = ClientIDGenerator.getClientId();
-
-            System.out.println("ID del client generato: " + this.userId);
+            // Porta scelta dal sistema: il server la ricava dal pacchetto di registrazione
+            this.notificationSocket = new DatagramSocket();
 
         } catch (IOException e) {
             e.printStackTrace();
         }
     }
 
-    // Metodo per registrarsi presso il server per ricevere notifiche UDP
-    private void registerClient() {
-        try (DatagramSocket socket = new DatagramSocket()) {
+    // Metodo per registrarsi presso il server per ricevere notifiche UDP con il token ricevuto al login
+    private void registerClient(String udpToken) {
+        try {
             InetAddress serverAddress = InetAddress.getByName(host);
 
-            // Invia il proprio ID al server
-            String message = "REGISTER=" + userId;
-            byte[] buffer = message.getBytes();
+            // Invia il token al server dalla socket su cui si ricevono le notifiche
+            String message = "REGISTER=" + udpToken;
+            byte[] buffer = message.getBytes(StandardCharsets.UTF_8);
 
-            DatagramPacket packet = new DatagramPacket(buffer, buffer.length, serverAddress, SERVER_UDP_PORT);
-            socket.send(packet);
+            DatagramPacket packet = new DatagramPacket(buffer, buffer.length, serverAddress, udpPort);
+            notificationSocket.send(packet);
 
-            System.out.println("Registrazione inviata al server per l'utente ID: " + userId);
+            System.out.println("Registrazione per le notifiche inviata al server");
         } catch (Exception e) {
             e.printStackTrace();
         }
@@ -57,15 +57,15 @@ public class ClientMain {
 
     // Metodo per ascoltare le notifiche dal server
     private void listenForNotifications() {
-        try (DatagramSocket socket = new DatagramSocket(CLIENT_UDP_PORT)) {
-            byte[] buffer = new byte[1024];
+        try (DatagramSocket socket = notificationSocket) {
+            byte[] buffer = new byte[2048];
             System.out.println("In attesa di notifiche dal server...");
 
             while (true) {
                 DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
                 socket.receive(packet);
 
-                String message = new String(packet.getData(), 0, packet.getLength());
+                String message = new String(packet.getData(), 0, packet.getLength(), StandardCharsets.UTF_8);
                 System.out.println("📩 Notifica ricevuta: " + message);
             }
         } catch (Exception e) {
@@ -79,7 +79,7 @@ public class ClientMain {
             System.out.println("Connesso al server " + host + " sulla porta " + port);
 
             // Avvio la CLI per la gestione degli ordini
-            CLI cli = new CLI(socket);
+            CLI cli = new CLI(socket, this::registerClient);
             cli.run();
         } catch (IOException e) {
             e.printStackTrace();
@@ -92,9 +92,6 @@ public class ClientMain {
         // Avvia il listener UDP in un thread separato
         new Thread(() -> client.listenForNotifications()).start();
 
-        // Registra il client per ricevere notifiche
-        client.registerClient();
-
         // Avvia la connessione TCP con il server
         try {
             client.startClient();
@@ -0,0 +1,354 @@
+package Client;
+
+import CommonClass.LatencyHistogram;
+import com.google.gson.Gson;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.google.gson.reflect.TypeToken;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.lang.reflect.Type;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/*
+ * Generatore di carico: N sessioni autenticate, ognuna sulla propria connessione, inviano un mix configurabile
+ * di limit, market, stop e cancel nel formato JSON di Ordini, in pipeline e a ritmo costante (open loop).
+ * Ogni richiesta ha un istante di invio programmato e la latenza si misura da quell'istante alla risposta:
+ * un server lento non riduce il carico offerto e le attese in coda restano nella misura.
+ * Uso: java Client.LoadGenerator [-c sessioni] [-r richieste/s totali] [-d secondi] [-w secondi di warmup]
+ *      [-mix limit=60,market=10,stop=10,cancel=20] [-price prezzo medio] [-spread ampiezza] [-user prefisso]
+ * Host e porta da src/Document/Connection.json; gli utenti prefisso1..N vengono registrati se non esistono
+ */
+public class LoadGenerator {
+    private static final String PASSWORD = "loadtest";
+    private static final String[] TYPES = {"limit", "market", "stop", "cancel"};
+    private static final int LIMIT = 0;
+    private static final int MARKET = 1;
+    private static final int STOP = 2;
+    private static final int CANCEL = 3;
+    private static final long DRAIN_NANOS = 5_000_000_000L; // Attesa massima delle risposte dopo l'ultimo invio
+
+    // Prossimo orderId: base casuale come ClientIDGenerator, per non riusare gli ID di un'esecuzione precedente
+    private static final AtomicInteger orderIdCounter = new AtomicInteger(1_000_000_000 + new Random().nextInt(500_000_000));
+
+    private final int[] mix = new int[TYPES.length]; // Pesi cumulativi dei tipi di richiesta
+    private final int price;
+    private final int spread;
+
+    /* Una sessione: connessione autenticata, thread che invia secondo il programma e thread che legge le risposte */
+    private final class LoadSession {
+        private final String username;
+        private final Socket socket;
+        private final PrintWriter out;
+        private final BufferedReader in;
+        private long nextRequestId = 1;
+
+        // Richieste in volo: requestId -> {istante programmato, tipo}
+        private final Map<Long, long[]> pending = new ConcurrentHashMap<>();
+        private final int[] recentLimits = new int[256]; // Ultimi limit inviati, candidati alla cancellazione
+        private int limitsSent;
+
+        // Scritti dal solo thread lettore, letti dopo la join
+        private final LatencyHistogram[] latency = new LatencyHistogram[TYPES.length];
+        private final Map<Integer, Long> codes = new TreeMap<>();
+        private long received;
+
+        // Scritti dal solo thread di invio
+        private long sent;
+        private long maxLag;
+
+        LoadSession(String host, int port, String username) throws IOException {
+            this.username = username;
+            this.socket = new Socket(host, port);
+            socket.setTcpNoDelay(true);
+            this.out = new PrintWriter(socket.getOutputStream(), true);
+            this.in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+            for (int i = 0; i < latency.length; i++) {
+                latency[i] = new LatencyHistogram();
+            }
+        }
+
+        // Registrazione (se l'utente esiste già la risposta è 102) e login, prima di avviare i thread
+        void authenticate() throws IOException {
+            String credentials = "\"username\": \"" + username + "\", \"password\": \"" + PASSWORD + "\"";
+            call("register", credentials);
+            int code = call("login", credentials);
+            if (code != 100) {
+                // Sessione rimasta aperta da un'esecuzione precedente
+                call("logout", "\"username\": \"" + username + "\"");
+                code = call("login", credentials);
+            }
+            if (code != 100) {
+                throw new IOException("Login non riuscito per " + username + " (codice " + code + ")");
+            }
+        }
+
+        // Richiesta sincrona: attende la risposta con lo stesso requestId
+        private int call(String operation, String values) throws IOException {
+            long requestId = nextRequestId++;
+            out.println(request(operation, requestId, values));
+            String line;
+            while ((line = in.readLine()) != null) {
+                JsonObject response = JsonParser.parseString(line).getAsJsonObject();
+                if (response.has("requestId") && response.get("requestId").getAsLong() == requestId) {
+                    return response.get("response").getAsInt();
+                }
+            }
+            throw new IOException("Connessione chiusa dal server");
+        }
+
+        /* Invia una richiesta ogni interval nanosecondi da first fino a end, senza attendere le risposte */
+        void send(long first, long interval, long end) {
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            for (long scheduled = first; scheduled < end; scheduled += interval) {
+                long now;
+                while ((now = System.nanoTime()) < scheduled) {
+                    LockSupport.parkNanos(scheduled - now);
+                }
+                maxLag = Math.max(maxLag, now - scheduled);
+                sendOne(scheduled, random);
+            }
+        }
+
+        private void sendOne(long scheduled, ThreadLocalRandom random) {
+            int type = pickType(random.nextInt(100));
+            if (type == CANCEL && limitsSent == 0) type = LIMIT;
+            String side = random.nextBoolean() ? "bid" : "ask";
+            int size = 1 + random.nextInt(10);
+            String values;
+            String operation;
+            switch (type) {
+                case LIMIT: {
+                    int orderId = orderIdCounter.getAndIncrement();
+                    recentLimits[limitsSent++ % recentLimits.length] = orderId;
+                    operation = "limitorder";
+                    values = order(orderId, side, size) + ", \"price\": " + (price - spread / 2 + random.nextInt(spread));
+                    break;
+                }
+                case MARKET:
+                    operation = "marketorder";
+                    values = order(orderIdCounter.getAndIncrement(), side, size);
+                    break;
+                case STOP: {
+                    // Trigger oltre la metà dello spread: in genere restano in attesa, a volte si attivano
+                    int offset = spread / 2 + random.nextInt(spread);
+                    operation = "stoporder";
+                    values = order(orderIdCounter.getAndIncrement(), side, size)
+                            + ", \"stopPrice\": " + ("bid".equals(side) ? price + offset : price - offset);
+                    break;
+                }
+                default: {
+                    int known = Math.min(limitsSent, recentLimits.length);
+                    operation = "cancelorder";
+                    values = "\"username\": \"" + username + "\", \"orderId\": " + recentLimits[random.nextInt(known)];
+                }
+            }
+            long requestId = nextRequestId++;
+            // Registrata prima dell'invio: la risposta può arrivare subito
+            pending.put(requestId, new long[]{scheduled, type});
+            out.println(request(operation, requestId, values));
+            sent++;
+        }
+
+        private String order(int orderId, String side, int size) {
+            return "\"username\": \"" + username + "\", \"orderId\": " + orderId
+                    + ", \"side\": \"" + side + "\", \"size\": " + size;
+        }
+
+        /* Abbina le risposte alle richieste in volo; solo quelle programmate dopo measureFrom entrano nella misura */
+        void read(long measureFrom) {
+            try {
+                String line;
+                while ((line = in.readLine()) != null) {
+                    long now = System.nanoTime();
+                    JsonObject response = JsonParser.parseString(line).getAsJsonObject();
+                    if (!response.has("requestId")) continue;
+                    long[] request = pending.remove(response.get("requestId").getAsLong());
+                    if (request == null) continue;
+                    received++;
+                    if (request[0] >= measureFrom) {
+                        latency[(int) request[1]].record(now - request[0]);
+                        codes.merge(response.get("response").getAsInt(), 1L, Long::sum);
+                    }
+                }
+            } catch (IOException | RuntimeException e) {
+                if (!socket.isClosed()) {
+                    System.out.println("Errore di comunicazione con il server (" + username + "): " + e.getMessage());
+                }
+            }
+        }
+
+        // Logout sulla stessa connessione (la risposta non viene attesa) e chiusura
+        void close() {
+            out.println(request("logout", nextRequestId++, "\"username\": \"" + username + "\""));
+            try {
+                socket.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    private LoadGenerator(String mixSpec, int price, int spread) {
+        int total = 0;
+        int[] weights = new int[TYPES.length];
+        for (String entry : mixSpec.split(",")) {
+            String[] pair = entry.split("=", 2);
+            int type = List.of(TYPES).indexOf(pair[0].trim());
+            if (type < 0 || pair.length != 2) {
+                throw new IllegalArgumentException("Mix non valido: " + entry + " (tipi: limit, market, stop, cancel)");
+            }
+            weights[type] = Integer.parseInt(pair[1].trim());
+            total += weights[type];
+        }
+        if (total <= 0) throw new IllegalArgumentException("Mix vuoto: " + mixSpec);
+        // Pesi riportati su 100 e resi cumulativi
+        int cumulative = 0;
+        for (int i = 0; i < TYPES.length; i++) {
+            cumulative += weights[i];
+            mix[i] = cumulative * 100 / total;
+        }
+        this.price = price;
+        this.spread = Math.max(2, spread);
+    }
+
+    private int pickType(int percent) {
+        for (int i = 0; i < mix.length; i++) {
+            if (percent < mix[i]) return i;
+        }
+        return LIMIT;
+    }
+
+    private static Thread start(String name, Runnable task) {
+        Thread thread = new Thread(task, name);
+        thread.start();
+        return thread;
+    }
+
+    private static String request(String operation, long requestId, String values) {
+        return "{\"operation\": \"" + operation + "\", \"requestId\": " + requestId + ", \"values\": {" + values + "}}";
+    }
+
+    public static void main(String[] args) throws Exception {
+        int sessions = 4;
+        int rate = 1000;
+        int seconds = 30;
+        int warmup = 5;
+        String mix = "limit=60,market=10,stop=10,cancel=20";
+        int price = 58_000_000;
+        int spread = 100_000;
+        String prefix = "load";
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "-c": sessions = Integer.parseInt(args[++i]); break;
+                case "-r": rate = Integer.parseInt(args[++i]); break;
+                case "-d": seconds = Integer.parseInt(args[++i]); break;
+                case "-w": warmup = Integer.parseInt(args[++i]); break;
+                case "-mix": mix = args[++i]; break;
+                case "-price": price = Integer.parseInt(args[++i]); break;
+                case "-spread": spread = Integer.parseInt(args[++i]); break;
+                case "-user": prefix = args[++i]; break;
+                default:
+                    System.out.println("Opzione sconosciuta: " + args[i]);
+                    return;
+            }
+        }
+        if (sessions <= 0 || rate <= 0 || seconds <= 0) {
+            System.out.println("Sessioni, tasso e durata devono essere positivi");
+            return;
+        }
+
+        String host;
+        int port;
+        try (FileReader reader = new FileReader("src/Document/Connection.json")) {
+            Type tipoMappa = new TypeToken<ConcurrentHashMap<String, Object>>() {}.getType();
+            ConcurrentHashMap<String, Object> map = new Gson().fromJson(reader, tipoMappa);
+            host = map.get("host").toString();
+            port = (int) Double.parseDouble(map.get("port").toString());
+        }
+
+        LoadGenerator generator = new LoadGenerator(mix, price, spread);
+        List<LoadSession> loadSessions = new ArrayList<>();
+        for (int i = 1; i <= sessions; i++) {
+            LoadSession session = generator.new LoadSession(host, port, prefix + i);
+            session.authenticate();
+            loadSessions.add(session);
+        }
+        System.out.printf("Sessioni: %d verso %s:%d, %d richieste/s totali (%s), %d s di misura dopo %d s di warmup%n",
+                sessions, host, port, rate, mix, seconds, warmup);
+
+        // Ogni sessione invia a rate/sessions richieste/s, sfasata rispetto alle altre
+        long interval = Math.max(1, 1_000_000_000L * sessions / rate);
+        long start = System.nanoTime() + 100_000_000L;
+        long measureFrom = start + warmup * 1_000_000_000L;
+        long end = measureFrom + seconds * 1_000_000_000L;
+        List<Thread> senders = new ArrayList<>();
+        List<Thread> readers = new ArrayList<>();
+        for (int i = 0; i < sessions; i++) {
+            LoadSession session = loadSessions.get(i);
+            long first = start + interval * i / sessions;
+            readers.add(start("load-reader-" + i, () -> session.read(measureFrom)));
+            senders.add(start("load-sender-" + i, () -> session.send(first, interval, end)));
+        }
+        for (Thread sender : senders) {
+            sender.join();
+        }
+
+        // Attende le risposte ancora in volo, poi chiude le sessioni
+        long drainUntil = System.nanoTime() + DRAIN_NANOS;
+        while (System.nanoTime() < drainUntil && loadSessions.stream().anyMatch(s -> !s.pending.isEmpty())) {
+            Thread.sleep(10);
+        }
+        for (LoadSession session : loadSessions) {
+            session.close();
+        }
+        for (Thread reader : readers) {
+            reader.join();
+        }
+
+        LatencyHistogram total = new LatencyHistogram();
+        LatencyHistogram[] byType = new LatencyHistogram[TYPES.length];
+        Map<Integer, Long> codes = new TreeMap<>();
+        long sent = 0;
+        long received = 0;
+        long unanswered = 0;
+        long maxLag = 0;
+        for (int t = 0; t < TYPES.length; t++) {
+            byType[t] = new LatencyHistogram();
+        }
+        for (LoadSession session : loadSessions) {
+            for (int t = 0; t < TYPES.length; t++) {
+                byType[t].add(session.latency[t]);
+                total.add(session.latency[t]);
+            }
+            session.codes.forEach((code, count) -> codes.merge(code, count, Long::sum));
+            sent += session.sent;
+            received += session.received;
+            unanswered += session.pending.size();
+            maxLag = Math.max(maxLag, session.maxLag);
+        }
+
+        System.out.printf("Inviate: %d, risposte: %d, senza risposta: %d%n", sent, received, unanswered);
+        System.out.printf("Throughput nella misura: %.0f risposte/s su %d richieste/s offerte%n", total.getCount() / (double) seconds, rate);
+        System.out.printf("Ritardo massimo degli invii sul programma: %.1f ms%n", maxLag / 1e6);
+        System.out.println("Codici di risposta: " + codes);
+        System.out.println("Latenza: " + total.summary(1000.0, "us"));
+        for (int t = 0; t < TYPES.length; t++) {
+            if (byType[t].getCount() > 0) {
+                System.out.println("  " + TYPES[t] + ": " + byType[t].summary(1000.0, "us"));
+            }
+        }
+    }
+}
@@ -1,34 +1,94 @@
 package Client;
 
+import CommonClass.BinaryProtocol;
 import com.google.gson.Gson;
 import java.io.*;
 import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
+/*
+ * Invio di ordini su una connessione dedicata. Le richieste sono in pipeline: ogni submit*
+ * restituisce subito un future e un thread lettore abbina le risposte tramite requestId
+ * (JSON) o orderId (binario); gli insert* sincroni attendono il proprio future
+ */
 public class Ordini {
     private final Gson gson = new Gson();
     private final Socket socket;
     private final PrintWriter out;
     private final BufferedReader in;
-    private static final AtomicInteger orderIdCounter = new AtomicInteger(1); // ID globale per tutti gli ordini
+    // ID globale per tutti gli ordini: base casuale come ClientIDGenerator, perché client diversi non usino gli stessi
+    // orderId (il server rifiuta con 409 un orderId già in uso)
+    private static final AtomicInteger orderIdCounter = new AtomicInteger(1 + new Random().nextInt(1_000_000_000));
+    private final AtomicLong requestIdCounter = new AtomicLong(1);
     private final String currentUsername; // Username autenticato
+    private final boolean binary; // Ordini inviati come frame binari invece che JSON
+    private DataOutputStream binaryOut;
+    private DataInputStream binaryIn;
+
+    // Richieste in volo: requestId (JSON) o orderId (binario) -> codice di risposta
+    private final Map<Long, CompletableFuture<Integer>> pending = new ConcurrentHashMap<>();
+    private volatile boolean closed; // Thread lettore terminato
 
     public Ordini(String serverAddress, int serverPort, String currentUsername) throws IOException {
+        this(serverAddress, serverPort, currentUsername, null);
+    }
+
+    /**
+     * Con la password la connessione negozia il protocollo binario e si collega alla sessione
+     * già aperta dall'utente (BIND), che il server concede solo con le credenziali corrette
+     */
+    public Ordini(String serverAddress, int serverPort, String currentUsername, String password) throws IOException {
         this.socket = new Socket(serverAddress, serverPort);
-        this.out = new PrintWriter(socket.getOutputStream(), true); // Autoflush attivo
-        this.in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
         this.currentUsername = currentUsername;
+        this.binary = password != null;
+        if (binary) {
+            socket.setTcpNoDelay(true);
+            this.out = null;
+            this.in = null;
+            this.binaryOut = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            this.binaryIn = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            binaryOut.write(BinaryProtocol.MAGIC);
+            bind(password);
+        } else {
+            this.out = new PrintWriter(socket.getOutputStream(), true); // Autoflush attivo
+            this.in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+        }
+
+        Thread reader = new Thread(binary ? this::readBinaryResponses : this::readJsonResponses, "ordini-reader");
+        reader.setDaemon(true);
+        reader.start();
     }
 
     public int insertLimitOrder(String side, int dim, Double price) {
+        return submitLimitOrder(side, dim, price).join();
+    }
+
+    public int insertMarketOrder(String side, int dim) {
+        return submitMarketOrder(side, dim).join();
+    }
+
+    public int insertStopOrder(String side, int dim, Double price) {
+        return submitStopOrder(side, dim, price).join();
+    }
+
+    /**
+     * Invia un limit order senza attendere la risposta.
+     * @return future con l'ID dell'ordine, -1 se rifiutato
+     */
+    public CompletableFuture<Integer> submitLimitOrder(String side, int dim, Double price) {
         int orderId = orderIdCounter.getAndIncrement(); // Generazione ID univoco
+        if (binary) {
+            return sendBinary(BinaryProtocol.encodeLimit(orderId, side, dim, price.intValue()), orderId);
+        }
 
         // Creazione del JSON per l'inserimento dell'ordine
-        ConcurrentMap<String, Object> request = new ConcurrentHashMap<>();
-        request.put("operation", "limitorder");
-
         ConcurrentHashMap<String, Object> values = new ConcurrentHashMap<>();
         values.put("username", currentUsername); // Usa l'username autenticato
         values.put("orderId", orderId);
@@ -36,46 +96,32 @@ public class Ordini {
         values.put("size", dim);
         values.put("price", price);
 
-        request.put("values", values);
-        String jsonRequest = gson.toJson(request);
-
-        // Invio dei dati al server
-        out.println(jsonRequest);
-        System.out.println("JSON inviato al server: " + jsonRequest);
-
-        return receiveResponse(orderId);
+        return sendJson("limitorder", values, orderId);
     }
 
-    public int insertMarketOrder(String side, int dim) {
+    public CompletableFuture<Integer> submitMarketOrder(String side, int dim) {
         int orderId = orderIdCounter.getAndIncrement();
+        if (binary) {
+            return sendBinary(BinaryProtocol.encodeMarket(orderId, side, dim), orderId);
+        }
 
         // Creazione del JSON per Market Order
-        ConcurrentMap<String, Object> request = new ConcurrentHashMap<>();
-        request.put("operation", "marketorder");
-
         ConcurrentHashMap<String, Object> values = new ConcurrentHashMap<>();
         values.put("username", currentUsername);
         values.put("orderId", orderId);
         values.put("side", side);
         values.put("size", dim);
 
-        request.put("values", values);
-        String jsonRequest = gson.toJson(request);
-
-        // Invio dei dati al server
-        out.println(jsonRequest);
-        System.out.println("JSON inviato al server: " + jsonRequest);
-
-        return receiveResponse(orderId);
+        return sendJson("marketorder", values, orderId);
     }
 
-    public int insertStopOrder(String side, int dim, Double price) {
+    public CompletableFuture<Integer> submitStopOrder(String side, int dim, Double price) {
         int orderId = orderIdCounter.getAndIncrement();
+        if (binary) {
+            return sendBinary(BinaryProtocol.encodeStop(orderId, side, dim, price.intValue()), orderId);
+        }
 
         // Creazione del JSON per Stop Order
-        ConcurrentMap<String, Object> request = new ConcurrentHashMap<>();
-        request.put("operation", "stoporder");
-
         ConcurrentHashMap<String, Object> values = new ConcurrentHashMap<>();
         values.put("username", currentUsername);
         values.put("orderId", orderId);
@@ -83,49 +129,141 @@ public class Ordini {
         values.put("size", dim);
         values.put("stopPrice", price);
 
+        return sendJson("stoporder", values, orderId);
+    }
+
+    // Invia la richiesta con un requestId nuovo: la risposta arriverà al thread lettore
+    private CompletableFuture<Integer> sendJson(String operation, Map<String, Object> values, int orderId) {
+        long requestId = requestIdCounter.getAndIncrement();
+        ConcurrentMap<String, Object> request = new ConcurrentHashMap<>();
+        request.put("operation", operation);
+        request.put("requestId", requestId);
         request.put("values", values);
         String jsonRequest = gson.toJson(request);
 
-        // Invio dei dati al server
-        out.println(jsonRequest);
+        // Registrato prima dell'invio: la risposta può arrivare subito
+        CompletableFuture<Integer> response = expect(requestId);
+        synchronized (out) {
+            out.println(jsonRequest);
+        }
         System.out.println("JSON inviato al server: " + jsonRequest);
-
-        return receiveResponse(orderId);
+        return toOrderId(response, orderId);
     }
 
-    private int receiveResponse(int orderId) {
+    // Invia un frame binario: la risposta è abbinata tramite l'orderId
+    private CompletableFuture<Integer> sendBinary(ByteBuffer frame, int orderId) {
+        CompletableFuture<Integer> response = expect(orderId);
         try {
-            String serverResponse = in.readLine();
-            System.out.println("JSON ricevuto dal server: " + serverResponse);
-
-            if (serverResponse == null) {
-                System.out.println("Errore: risposta nulla dal server.");
-                return -1;
+            synchronized (binaryOut) {
+                binaryOut.write(frame.array(), frame.position(), frame.remaining());
+                binaryOut.flush();
             }
+        } catch (IOException e) {
+            System.out.println("Errore di comunicazione con il server.");
+            pending.remove((long) orderId);
+            response.complete(-1);
+        }
+        return toOrderId(response, orderId);
+    }
 
-            // Decodifica la risposta JSON
-            ConcurrentHashMap<String, Object> response = gson.fromJson(serverResponse, ConcurrentHashMap.class);
-            double responseCode = (double) response.get("response");
-            String errorMessage = (String) response.get("errorMessage");
+    private CompletableFuture<Integer> expect(long key) {
+        CompletableFuture<Integer> response = new CompletableFuture<>();
+        pending.put(key, response);
+        if (closed) {
+            complete(key, -1);
+        }
+        return response;
+    }
 
-            // Interpretazione della risposta
-            if (responseCode == 100) {
+    private static CompletableFuture<Integer> toOrderId(CompletableFuture<Integer> response, int orderId) {
+        return response.thenApply(code -> {
+            if (code == 100) {
                 System.out.println("Ordine inserito con successo! ID: " + orderId);
                 return orderId;
-            } else {
-                System.out.println("Errore: " + errorMessage);
-                return -1;
+            }
+            return -1;
+        });
+    }
+
+    // BIND sincrono, prima che parta il thread lettore
+    private void bind(String password) throws IOException {
+        ByteBuffer frame = BinaryProtocol.encodeBind(currentUsername, password);
+        binaryOut.write(frame.array(), frame.position(), frame.remaining());
+        binaryOut.flush();
+        ByteBuffer response = BinaryProtocol.readFrame(binaryIn);
+        if (response == null || response.get() != BinaryProtocol.RESPONSE || response.getShort() != 100) {
+            socket.close();
+            throw new IOException("Utente non collegato: " + currentUsername);
+        }
+    }
+
+    private void readJsonResponses() {
+        try {
+            String serverResponse;
+            while ((serverResponse = in.readLine()) != null) {
+                System.out.println("JSON ricevuto dal server: " + serverResponse);
+
+                // Decodifica la risposta JSON
+                ConcurrentHashMap<String, Object> response = gson.fromJson(serverResponse, ConcurrentHashMap.class);
+                Object requestId = response.get("requestId");
+                if (requestId == null) {
+                    System.out.println("Risposta senza requestId ignorata.");
+                    continue;
+                }
+                int responseCode = ((Number) response.get("response")).intValue();
+                if (responseCode != 100) {
+                    System.out.println("Errore: " + response.get("errorMessage"));
+                }
+                complete(((Number) requestId).longValue(), responseCode);
+            }
+        } catch (IOException | RuntimeException e) {
+            System.out.println("Errore di comunicazione con il server.");
+        } finally {
+            failPending();
+        }
+    }
+
+    private void readBinaryResponses() {
+        try {
+            ByteBuffer response;
+            while ((response = BinaryProtocol.readFrame(binaryIn)) != null) {
+                if (response.get() != BinaryProtocol.RESPONSE) continue;
+                int responseCode = response.getShort();
+                int orderId = response.getInt();
+                if (responseCode != 100) {
+                    System.out.println("Errore: codice " + responseCode + " per l'ordine " + orderId);
+                }
+                complete(orderId, responseCode);
             }
         } catch (IOException e) {
             System.out.println("Errore di comunicazione con il server.");
-            e.printStackTrace();
-            return -1;
+        } finally {
+            failPending();
+        }
+    }
+
+    private void complete(long key, int responseCode) {
+        CompletableFuture<Integer> response = pending.remove(key);
+        if (response != null) {
+            response.complete(responseCode);
         }
     }
 
+    // Connessione chiusa: le richieste ancora in volo falliscono
+    private void failPending() {
+        closed = true;
+        for (Long key : pending.keySet()) {
+            complete(key, -1);
+        }
+    }
+
+    // Chiudere prima la socket sblocca il thread lettore, che tiene il lock dello stream in lettura
     public void close() throws IOException {
-        in.close();
-        out.close();
         socket.close();
+        if (binary) {
+            binaryIn.close();
+        } else {
+            in.close();
+        }
     }
 }
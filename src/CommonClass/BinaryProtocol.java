@@ -0,0 +1,148 @@
+package CommonClass;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/*
+ * Protocollo binario compatto, alternativo alle righe JSON.
+ * Il client lo negozia inviando MAGIC come primo byte della connessione (una riga JSON inizia sempre con '{').
+ * Ogni messaggio è un frame [lunghezza u16][opcode][payload a layout fisso], numeri in big endian
+ */
+public class BinaryProtocol {
+    public static final int MAGIC = 0xCB;
+
+    // Richieste client -> server
+    public static final byte LOGIN = 0x01;   // [username][password]
+    public static final byte LOGOUT = 0x02;  // -
+    public static final byte BIND = 0x03;    // [username][password]: collega la connessione a un utente già loggato
+    public static final byte LIMIT = 0x10;   // orderId, side, size, price
+    public static final byte MARKET = 0x11;  // orderId, side, size
+    public static final byte STOP = 0x12;    // orderId, side, size, stopPrice
+    public static final byte CANCEL = 0x13;  // orderId
+    public static final byte MODIFY = 0x14;  // orderId, size, price (0 = invariato)
+
+    // Risposte server -> client
+    public static final byte RESPONSE = (byte) 0x80; // code (short), orderId
+
+    public static final byte BID = 0;
+    public static final byte ASK = 1;
+
+    private static final int MAX_FRAME = 0xFFFF;
+
+    public static ByteBuffer encodeLogin(String username, String password) {
+        byte[] user = username.getBytes(StandardCharsets.UTF_8);
+        byte[] pass = password.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer frame = begin(LOGIN, 4 + user.length + pass.length);
+        putString(frame, user);
+        putString(frame, pass);
+        return end(frame);
+    }
+
+    public static ByteBuffer encodeBind(String username, String password) {
+        byte[] user = username.getBytes(StandardCharsets.UTF_8);
+        byte[] pass = password.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer frame = begin(BIND, 4 + user.length + pass.length);
+        putString(frame, user);
+        putString(frame, pass);
+        return end(frame);
+    }
+
+    public static ByteBuffer encodeLogout() {
+        return end(begin(LOGOUT, 0));
+    }
+
+    public static ByteBuffer encodeLimit(int orderId, String side, int size, int price) {
+        ByteBuffer frame = begin(LIMIT, 13);
+        frame.putInt(orderId).put(encodeSide(side)).putInt(size).putInt(price);
+        return end(frame);
+    }
+
+    public static ByteBuffer encodeMarket(int orderId, String side, int size) {
+        ByteBuffer frame = begin(MARKET, 9);
+        frame.putInt(orderId).put(encodeSide(side)).putInt(size);
+        return end(frame);
+    }
+
+    public static ByteBuffer encodeStop(int orderId, String side, int size, int stopPrice) {
+        ByteBuffer frame = begin(STOP, 13);
+        frame.putInt(orderId).put(encodeSide(side)).putInt(size).putInt(stopPrice);
+        return end(frame);
+    }
+
+    public static ByteBuffer encodeCancel(int orderId) {
+        ByteBuffer frame = begin(CANCEL, 4);
+        frame.putInt(orderId);
+        return end(frame);
+    }
+
+    public static ByteBuffer encodeModify(int orderId, int size, int price) {
+        ByteBuffer frame = begin(MODIFY, 12);
+        frame.putInt(orderId).putInt(size).putInt(price);
+        return end(frame);
+    }
+
+    public static ByteBuffer encodeResponse(int code, int orderId) {
+        ByteBuffer frame = begin(RESPONSE, 6);
+        frame.putShort((short) code).putInt(orderId);
+        return end(frame);
+    }
+
+    /**
+     * Legge un frame completo dallo stream.
+     * @return il frame a partire dall'opcode, null se lo stream è terminato
+     */
+    public static ByteBuffer readFrame(DataInputStream in) throws IOException {
+        int length;
+        try {
+            length = in.readUnsignedShort();
+        } catch (EOFException e) {
+            return null;
+        }
+        byte[] frame = new byte[length];
+        in.readFully(frame);
+        return ByteBuffer.wrap(frame);
+    }
+
+    public static String getString(ByteBuffer frame) {
+        byte[] bytes = new byte[frame.getShort() & 0xFFFF];
+        frame.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    public static byte encodeSide(String side) {
+        return "bid".equalsIgnoreCase(side) ? BID : ASK;
+    }
+
+    /* Lato dell'ordine, null se il byte non è né BID né ASK */
+    public static String decodeSide(byte side) {
+        switch (side) {
+            case BID: return "bid";
+            case ASK: return "ask";
+            default: return null;
+        }
+    }
+
+    // Frame con spazio per la lunghezza e l'opcode
+    private static ByteBuffer begin(byte opcode, int payload) {
+        if (payload + 1 > MAX_FRAME) {
+            throw new IllegalArgumentException("Frame troppo lungo: " + payload);
+        }
+        ByteBuffer frame = ByteBuffer.allocate(3 + payload);
+        frame.putShort((short) (payload + 1));
+        frame.put(opcode);
+        return frame;
+    }
+
+    private static ByteBuffer end(ByteBuffer frame) {
+        frame.flip();
+        return frame;
+    }
+
+    private static void putString(ByteBuffer frame, byte[] bytes) {
+        frame.putShort((short) bytes.length);
+        frame.put(bytes);
+    }
+}
@@ -0,0 +1,152 @@
+package CommonClass;
+
+import Server.Order;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/*
+ * Snapshot compatto del book (ordini limit e stop ancora aperti) con l'offset del journal che copre.
+ * All'avvio si carica lo snapshot più recente e si rilegge solo la coda del journal successiva
+ */
+public class BookSnapshot {
+    private static final int MAGIC = 0x43524F53; // "CROS"
+    private static final int VERSION = 1;
+    private static final String PREFIX = "book-";
+    private static final String SUFFIX = ".snap";
+
+    private final long journalOffset;
+    private final List<Order> orders; // Copie, in ordine di priorità per ogni livello
+
+    public BookSnapshot(long journalOffset, List<Order> orders) {
+        this.journalOffset = journalOffset;
+        this.orders = orders;
+    }
+
+    public long getJournalOffset() {
+        return journalOffset;
+    }
+
+    public List<Order> getOrders() {
+        return orders;
+    }
+
+    /* Scrive lo snapshot in un file temporaneo e lo rende visibile con una move atomica */
+    public Path write(String dir) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64 + orders.size() * 48);
+        DataOutputStream data = new DataOutputStream(bytes);
+        data.writeInt(MAGIC);
+        data.writeInt(VERSION);
+        data.writeLong(journalOffset);
+        data.writeInt(orders.size());
+        for (Order order : orders) {
+            byte[] user = order.getUserId() == null ? new byte[0] : order.getUserId().getBytes(StandardCharsets.UTF_8);
+            data.writeInt(order.getOrderId());
+            data.writeByte("bid".equals(order.getType()) ? 0 : 1);
+            data.writeByte("stop".equals(order.getOrderType()) ? 2 : 0);
+            data.writeInt(order.getSize());
+            data.writeInt(order.getPrice());
+            data.writeInt(order.getStopPrice());
+            data.writeLong(order.getTimestamp());
+            data.writeShort(user.length);
+            data.write(user);
+        }
+        CRC32 crc = new CRC32();
+        crc.update(bytes.toByteArray());
+        data.writeLong(crc.getValue());
+        data.flush();
+
+        Path directory = Paths.get(dir);
+        Files.createDirectories(directory);
+        Path target = directory.resolve(String.format("%s%020d%s", PREFIX, journalOffset, SUFFIX));
+        Path temp = directory.resolve(target.getFileName() + ".tmp");
+        Files.write(temp, bytes.toByteArray());
+        Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return target;
+    }
+
+    /* Carica lo snapshot valido più recente, null se non ce ne sono */
+    public static BookSnapshot loadLatest(String dir) {
+        List<Path> files = list(dir);
+        for (int i = files.size() - 1; i >= 0; i--) {
+            try {
+                return read(files.get(i));
+            } catch (IOException | RuntimeException e) {
+                System.err.println("Snapshot non valido ignorato: " + files.get(i) + " (" + e.getMessage() + ")");
+            }
+        }
+        return null;
+    }
+
+    /* Elimina gli snapshot più vecchi mantenendo gli ultimi keep */
+    public static void prune(String dir, int keep) {
+        List<Path> files = list(dir);
+        for (int i = 0; i < files.size() - keep; i++) {
+            try {
+                Files.deleteIfExists(files.get(i));
+            } catch (IOException e) {
+                System.err.println("Impossibile eliminare lo snapshot " + files.get(i));
+            }
+        }
+    }
+
+    private static BookSnapshot read(Path file) throws IOException {
+        byte[] bytes = Files.readAllBytes(file);
+        if (bytes.length < 28) throw new IOException("file troppo corto");
+        CRC32 crc = new CRC32();
+        crc.update(bytes, 0, bytes.length - 8);
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        if (buffer.getLong(bytes.length - 8) != crc.getValue()) throw new IOException("CRC errato");
+        if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION) throw new IOException("formato sconosciuto");
+
+        try {
+            long offset = buffer.getLong();
+            int count = buffer.getInt();
+            List<Order> orders = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                int orderId = buffer.getInt();
+                String side = buffer.get() == 0 ? "bid" : "ask";
+                String orderType = buffer.get() == 2 ? "stop" : "limit";
+                int size = buffer.getInt();
+                int price = buffer.getInt();
+                int stopPrice = buffer.getInt();
+                long timestamp = buffer.getLong();
+                byte[] user = new byte[buffer.getShort() & 0xFFFF];
+                buffer.get(user);
+                String userId = user.length == 0 ? null : new String(user, StandardCharsets.UTF_8);
+                orders.add(new Order(orderId, userId, side, orderType, size, price, stopPrice, timestamp));
+            }
+            return new BookSnapshot(offset, orders);
+        } catch (BufferUnderflowException e) {
+            throw new IOException("snapshot incompleto");
+        }
+    }
+
+    // Snapshot presenti, ordinati per offset crescente (il nome è a larghezza fissa)
+    private static List<Path> list(String dir) {
+        List<Path> files = new ArrayList<>();
+        Path directory = Paths.get(dir);
+        if (!Files.isDirectory(directory)) return files;
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, PREFIX + "*" + SUFFIX)) {
+            for (Path file : stream) {
+                files.add(file);
+            }
+        } catch (IOException e) {
+            System.err.println("Errore nella lettura della cartella degli snapshot: " + e.getMessage());
+        }
+        files.sort(null);
+        return files;
+    }
+}
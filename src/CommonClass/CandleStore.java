@@ -0,0 +1,322 @@
+package CommonClass;
+
+import com.google.gson.Gson;
+import com.google.gson.reflect.TypeToken;
+
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.StampedLock;
+import java.util.zip.CRC32;
+
+/*
+ * Candele OHLCV (1s, 1m, 1h, 1d) aggiornate in modo incrementale a ogni trade.
+ * Ogni timeframe tiene le ultime barre in array circolari; scrive solo il thread del matching,
+ * le richieste leggono con una lettura ottimistica (StampedLock) senza passare dal motore.
+ * Le barre vengono salvate su file con il primo trade del nastro non ancora incluso: all'avvio si riparte
+ * da lì invece di reimportare lo storico e rileggere tutto il nastro
+ */
+public class CandleStore {
+    public static final String[] TIMEFRAMES = {"1s", "1m", "1h", "1d"};
+    private static final long[] PERIODS = {1000L, 60_000L, 3_600_000L, 86_400_000L};
+    private static final int[] CAPACITIES = {86_400, 10_080, 8_760, 3_650}; // Un giorno, una settimana, un anno, dieci anni
+    public static final int MAX_LIMIT = 1000;
+    private static final int MAGIC = 0x43414E44; // "CAND"
+    private static final int VERSION = 1;
+    private static final int BAR_SIZE = 32;      // inizio i64, open/high/low/close i32, volume i64
+
+    // Barre di un timeframe: la barra i-esima dalla più vecchia è nello slot (first + i) % capacity
+    private static final class Series {
+        final long period;
+        final long[] start;
+        final int[] open;
+        final int[] high;
+        final int[] low;
+        final int[] close;
+        final long[] volume;
+        final StampedLock lock = new StampedLock();
+        int first;
+        int count;
+
+        Series(long period, int capacity) {
+            this.period = period;
+            this.start = new long[capacity];
+            this.open = new int[capacity];
+            this.high = new int[capacity];
+            this.low = new int[capacity];
+            this.close = new int[capacity];
+            this.volume = new long[capacity];
+        }
+
+        int slot(int i) {
+            return (first + i) % start.length;
+        }
+
+        void add(long timestamp, int price, int size) {
+            long barStart = timestamp - Math.floorMod(timestamp, period);
+            long stamp = lock.writeLock();
+            try {
+                int s;
+                if (count > 0 && start[slot(count - 1)] == barStart) {
+                    s = slot(count - 1);
+                } else if (count == 0 || barStart > start[slot(count - 1)]) {
+                    // Nuova barra in coda, sovrascrivendo la più vecchia se il buffer è pieno
+                    if (count == start.length) {
+                        first = (first + 1) % start.length;
+                        count--;
+                    }
+                    s = slot(count++);
+                    start[s] = barStart;
+                    open[s] = price;
+                    high[s] = price;
+                    low[s] = price;
+                    close[s] = price;
+                    volume[s] = size;
+                    return;
+                } else {
+                    // Trade fuori ordine: aggiorna la sua barra se è ancora nel buffer
+                    int i = find(barStart);
+                    if (i < 0) return;
+                    s = slot(i);
+                    high[s] = Math.max(high[s], price);
+                    low[s] = Math.min(low[s], price);
+                    volume[s] += size;
+                    return;
+                }
+                high[s] = Math.max(high[s], price);
+                low[s] = Math.min(low[s], price);
+                close[s] = price;
+                volume[s] += size;
+            } finally {
+                lock.unlockWrite(stamp);
+            }
+        }
+
+        // Posizione della barra che inizia a barStart, -1 se non presente (le barre sono in ordine di tempo)
+        int find(long barStart) {
+            int lo = 0;
+            int hi = count - 1;
+            while (lo <= hi) {
+                int mid = (lo + hi) >>> 1;
+                long value = start[slot(mid)];
+                if (value < barStart) lo = mid + 1;
+                else if (value > barStart) hi = mid - 1;
+                else return mid;
+            }
+            return -1;
+        }
+
+        // Prima posizione con inizio >= from
+        int lowerBound(long from) {
+            int lo = 0;
+            int hi = count;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (start[slot(mid)] < from) lo = mid + 1;
+                else hi = mid;
+            }
+            return lo;
+        }
+
+        // Copia le ultime limit barre con inizio in [from, to]; restituisce il numero di barre copiate
+        int copy(long from, long to, int limit, long[] t, int[] o, int[] h, int[] l, int[] c, long[] v) {
+            int end = lowerBound(to == Long.MAX_VALUE ? to : to + 1);
+            int begin = Math.max(lowerBound(from), end - limit);
+            int n = Math.max(0, end - begin);
+            for (int i = 0; i < n; i++) {
+                int s = slot(begin + i);
+                t[i] = start[s];
+                o[i] = open[s];
+                h[i] = high[s];
+                l[i] = low[s];
+                c[i] = close[s];
+                v[i] = volume[s];
+            }
+            return n;
+        }
+    }
+
+    private final Series[] series = new Series[TIMEFRAMES.length];
+
+    public CandleStore() {
+        for (int i = 0; i < series.length; i++) {
+            series[i] = new Series(PERIODS[i], CAPACITIES[i]);
+        }
+    }
+
+    /* Aggiorna le barre di tutti i timeframe con un trade (timestamp in millisecondi) */
+    public void onTrade(long timestamp, int price, int size) {
+        for (Series s : series) {
+            s.add(timestamp, price, size);
+        }
+    }
+
+    /**
+     * Stato di tutte le barre, con CRC finale. Va chiamato da chi scrive le barre (il thread del matching),
+     * così le barre corrispondono esattamente ai trade precedenti a nextTradeId
+     * @param nextTradeId primo trade del nastro non ancora incluso nelle barre
+     */
+    public byte[] serialize(long nextTradeId) {
+        int size = 16 + 8;
+        for (Series s : series) {
+            size += 4 + s.count * BAR_SIZE;
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(size);
+        buffer.putInt(MAGIC).putInt(VERSION).putLong(nextTradeId);
+        for (Series s : series) {
+            buffer.putInt(s.count);
+            for (int i = 0; i < s.count; i++) {
+                int slot = s.slot(i);
+                buffer.putLong(s.start[slot]).putInt(s.open[slot]).putInt(s.high[slot]).putInt(s.low[slot])
+                        .putInt(s.close[slot]).putLong(s.volume[slot]);
+            }
+        }
+        CRC32 crc = new CRC32();
+        crc.update(buffer.array(), 0, size - 8);
+        buffer.putLong(crc.getValue());
+        return buffer.array();
+    }
+
+    /* Scrive lo stato prodotto da serialize in un file temporaneo e lo rende visibile con una move atomica */
+    public static void store(String file, byte[] bytes) throws IOException {
+        Path path = Paths.get(file);
+        Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+        Files.write(temp, bytes);
+        Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Sostituisce le barre con quelle salvate da serialize (da chiamare all'avvio, prima dei trade)
+     * @return il primo trade del nastro da riapplicare, -1 se il file manca o non è valido (barre invariate)
+     */
+    public long load(String file) {
+        Path path = Paths.get(file);
+        if (!Files.exists(path)) return -1;
+        try {
+            byte[] bytes = Files.readAllBytes(path);
+            if (bytes.length < 24) throw new IOException("file troppo corto");
+            CRC32 crc = new CRC32();
+            crc.update(bytes, 0, bytes.length - 8);
+            ByteBuffer buffer = ByteBuffer.wrap(bytes);
+            if (buffer.getLong(bytes.length - 8) != crc.getValue()) throw new IOException("CRC errato");
+            if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION) throw new IOException("formato sconosciuto");
+            long nextTradeId = buffer.getLong();
+            Series[] loaded = new Series[series.length];
+            for (int t = 0; t < loaded.length; t++) {
+                Series s = new Series(PERIODS[t], CAPACITIES[t]);
+                int count = buffer.getInt();
+                for (int i = 0; i < count; i++) {
+                    long start = buffer.getLong();
+                    int open = buffer.getInt();
+                    int high = buffer.getInt();
+                    int low = buffer.getInt();
+                    int close = buffer.getInt();
+                    long volume = buffer.getLong();
+                    if (i < count - s.start.length) continue; // Capacità ridotta: si tengono le più recenti
+                    int slot = s.count++;
+                    s.start[slot] = start;
+                    s.open[slot] = open;
+                    s.high[slot] = high;
+                    s.low[slot] = low;
+                    s.close[slot] = close;
+                    s.volume[slot] = volume;
+                }
+                loaded[t] = s;
+            }
+            System.arraycopy(loaded, 0, series, 0, series.length);
+            return nextTradeId;
+        } catch (IOException | BufferUnderflowException e) {
+            System.err.println("Candele salvate non valide ignorate: " + file + " (" + e.getMessage() + ")");
+            return -1;
+        }
+    }
+
+    /* Indice del timeframe ("1s", "1m", "1h", "1d"), -1 se non supportato */
+    public static int timeframe(String name) {
+        for (int i = 0; i < TIMEFRAMES.length; i++) {
+            if (TIMEFRAMES[i].equals(name)) return i;
+        }
+        return -1;
+    }
+
+    /**
+     * Risposta getcandles: le ultime limit barre con inizio tra from e to (millisecondi, estremi inclusi),
+     * dalla più vecchia alla più recente
+     */
+    public String toJson(int timeframe, long from, long to, int limit) {
+        Series s = series[timeframe];
+        int n = Math.max(1, Math.min(limit, MAX_LIMIT));
+        long[] t = new long[n];
+        int[] o = new int[n];
+        int[] h = new int[n];
+        int[] l = new int[n];
+        int[] c = new int[n];
+        long[] v = new long[n];
+
+        // Lettura ottimistica: si ripete sotto lock solo se il motore ha scritto nel frattempo
+        long stamp = s.lock.tryOptimisticRead();
+        int count;
+        try {
+            count = s.copy(from, to, n, t, o, h, l, c, v);
+        } catch (RuntimeException e) {
+            count = -1; // Stato letto a metà di una scrittura
+        }
+        if (!s.lock.validate(stamp) || count < 0) {
+            stamp = s.lock.readLock();
+            try {
+                count = s.copy(from, to, n, t, o, h, l, c, v);
+            } finally {
+                s.lock.unlockRead(stamp);
+            }
+        }
+
+        StringBuilder sb = new StringBuilder(64 + count * 96);
+        sb.append("{\"response\": 100, \"timeframe\": \"").append(TIMEFRAMES[timeframe]).append("\", \"candles\": [");
+        for (int i = 0; i < count; i++) {
+            if (i > 0) sb.append(", ");
+            sb.append("{\"time\": ").append(t[i])
+                    .append(", \"open\": ").append(o[i])
+                    .append(", \"high\": ").append(h[i])
+                    .append(", \"low\": ").append(l[i])
+                    .append(", \"close\": ").append(c[i])
+                    .append(", \"volume\": ").append(v[i]).append('}');
+        }
+        return sb.append("]}").toString();
+    }
+
+    /**
+     * Importa come trade gli ordini eseguiti di uno storico nel formato di StoricoOrdini100.json
+     * (timestamp in secondi), in ordine di tempo
+     * @return il numero di trade importati
+     */
+    public int importHistory(String file) throws IOException {
+        if (!Files.exists(Paths.get(file))) return 0;
+        List<Map<String, Object>> orders;
+        try (Reader reader = new FileReader(file)) {
+            orders = new Gson().fromJson(reader, new TypeToken<List<Map<String, Object>>>() {}.getType());
+        }
+        if (orders == null) return 0;
+        orders.sort(Comparator.comparingDouble(order -> ((Number) order.getOrDefault("timestamp", 0)).doubleValue()));
+        int imported = 0;
+        for (Map<String, Object> order : orders) {
+            Object timestamp = order.get("timestamp");
+            Object price = order.get("price");
+            Object size = order.get("size");
+            if (!(timestamp instanceof Number) || !(price instanceof Number) || !(size instanceof Number)) continue;
+            long millis = ((Number) timestamp).longValue();
+            if (millis < 100_000_000_000L) millis *= 1000; // Timestamp in secondi
+            onTrade(millis, ((Number) price).intValue(), ((Number) size).intValue());
+            imported++;
+        }
+        return imported;
+    }
+}
@@ -4,34 +4,302 @@ import Server.Order;
 import com.google.gson.*;
 
 import java.io.FileReader;
-import java.io.FileWriter;
 import java.io.IOException;
-import java.net.DatagramPacket;
-import java.net.DatagramSocket;
-import java.net.InetAddress;
+import java.io.UncheckedIOException;
 import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
 
 public class CompraVendita {
 
-    private static final String ORDER_FILE = "src/Document/Orders.json";
-    private static final String COMPLETED_ORDERS_FILE = "src/Document/CompletedOrders.json";
+    private static final String ORDER_FILE = "src/Document/Orders.json"; // Usato solo per l'importazione iniziale
+    private static final String JOURNAL_FILE = "src/Document/Orders.journal";
+    private static final String SNAPSHOT_DIR = "src/Document/snapshots";
+    private static final String HISTORY_INDEX_FILE = "src/Document/History.index";
+    private static final String TAPE_DIR = "src/Document/tape";
+    private static final String HISTORY_FILE = "src/Document/StoricoOrdini100.json"; // Storico con cui inizializzare le candele
+    private static final String CANDLES_FILE = "src/Document/Candles.bin"; // Barre salvate e trade del nastro che coprono
+    private static final int TAPE_SEGMENT_RECORDS = 1 << 18; // 8 MB per segmento del nastro dei trade
+    private static final long DEPTH_REFRESH_MILLIS = 5; // Intervallo minimo tra due ricostruzioni della vista della profondità
     private static final Gson gson = new Gson();
+    private static final MetricTimer addOrderTimer = Metrics.timer("engine.addorder");
+    private static final MetricTimer addOrdersTimer = Metrics.timer("engine.addorders"); // Un gruppo di addOrders intero
+    private static final MetricTimer matchingTimer = Metrics.timer("engine.matching");
+    private static final MetricTimer journalTimer = Metrics.timer("io.journal.append");
+    private static final LongAdder tradeCounter = Metrics.counter("engine.trades");
+    private static final LongAdder journalErrors = Metrics.counter("io.journal.errors"); // Trade e trigger non registrati
+
+    private static final int RECENT_ORDER_IDS = 100_000; // orderId ricordati dopo l'esecuzione o la cancellazione
+
+    private static final ConcurrentHashMap<Integer, Order> ordersMap = new ConcurrentHashMap<>(); // Solo ordini aperti
+    // Ultimi RECENT_ORDER_IDS orderId accettati, anche di ordini già chiusi: addOrder li rifiuta (solo chi modifica il book)
+    private static final Set<Integer> recentOrderIds = Collections.newSetFromMap(new LinkedHashMap<Integer, Boolean>() {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Integer, Boolean> eldest) {
+            return size() > RECENT_ORDER_IDS;
+        }
+    });
+    private static final OrderBook bidOrders = new OrderBook(true);  // Livelli bid, prezzo decrescente
+    private static final OrderBook askOrders = new OrderBook(false); // Livelli ask, prezzo crescente
+    // Stop order in attesa, ordinati per prezzo di attivazione: buy crescenti, sell decrescenti
+    private static final OrderBook buyStops = new OrderBook(false, Order::getStopPrice);
+    private static final OrderBook sellStops = new OrderBook(true, Order::getStopPrice);
+
+
+    private static OrderJournal journal; // Fonte di verità degli ordini: eventi append-only
+    private static HistoryIndex historyIndex; // (username, mese) -> offset nel journal
+    private static TradeTape tradeTape;       // Trade eseguiti, su segmenti mappati in memoria
+    private static final CandleStore candles = new CandleStore(); // Barre OHLCV aggiornate a ogni trade
+
+    // Accesso esclusivo al book quando il motore non è attivo (un virtual thread in attesa non blocca il carrier)
+    private static final ReentrantLock bookLock = new ReentrantLock();
+
+    private MatchingEngine engine; // Se avviato, è l'unico thread che modifica il book
+    private volatile boolean syncEachGroup;   // Force del journal prima di rispondere (group commit)
+    private long syncedPosition = -1;         // Posizione del journal all'ultima force per gruppo
+    private ScheduledExecutorService journalSyncScheduler;
+    private ScheduledExecutorService snapshotScheduler;
+    private long lastSnapshotOffset = -1;
+    private static long candlesSavedTradeId = -1; // Primo trade escluso dalle ultime candele salvate
+    private volatile UdpNotifier notifier; // Notifiche asincrone delle esecuzioni, null se non avviato
+    private volatile MarketDataFeed feed;  // Market data multicast, null se non avviato
+    private ScheduledExecutorService marketDataScheduler;
+    private volatile long bookVersion;     // Versione di bid + ask dopo l'ultima operazione
+    private volatile long tradeCount;      // Trade eseguiti dall'avvio (scritto solo da chi modifica il book)
+
+    // Fasi di addOrder misurate da un PhaseTimer (solo negli strumenti di misura)
+    public static final String[] ADD_PHASES = {"journal", "place", "stops", "matching"};
+    private PhaseTimer phaseTimer;
+    private volatile DepthView depthView;  // Vista della profondità pubblicata da chi modifica il book
+    private long depthBuiltAt;             // nanoTime dell'ultima ricostruzione (solo chi modifica il book)
+    private ScheduledExecutorService depthScheduler;
+    // Dimensioni del book dopo l'ultima operazione, lette dai gauge delle metriche
+    private volatile int bidLevels;
+    private volatile int askLevels;
+    private volatile int restingOrders;
+    private volatile int pendingStops;
+
+    /*
+     * Ricostruisce le candele dal file salvato più i trade del nastro successivi. Solo se il file manca
+     * (primo avvio) o non è valido si importa lo storico e si rilegge tutto il nastro; in ogni caso lo stato
+     * viene salvato subito, quindi l'importazione avviene una volta sola
+     */
+    private static void loadCandles() throws IOException {
+        long from = candles.load(CANDLES_FILE);
+        int imported = 0;
+        if (from < 0) {
+            imported = candles.importHistory(HISTORY_FILE);
+            from = 1;
+        }
+        TradeTape.Reader reader = new TradeTape.Reader(TAPE_DIR, from);
+        int replayed = 0;
+        int read;
+        while ((read = reader.poll((tradeId, timestamp, bidOrderId, askOrderId, price, size) -> candles.onTrade(timestamp, price, size), 65536)) > 0) {
+            replayed += read;
+        }
+        saveCandles(candles.serialize(tradeTape.getNextTradeId()), tradeTape.getNextTradeId());
+        System.out.println("Candele inizializzate: " + imported + " trade storici, " + replayed + " dal nastro (dal trade " + from + ")");
+    }
 
-    private static final ConcurrentHashMap<Integer, Order> ordersMap = new ConcurrentHashMap<>();
-    private static PriorityQueue<Order> bidOrders = new PriorityQueue<>(new BidComparator());
-    private static PriorityQueue<Order> askOrders = new PriorityQueue<>(new AskComparator());
-    private static List<Order> stopOrders = new ArrayList<>(); // Lista per gli Stop Orders
-
-    private static final ConcurrentHashMap<Integer, ClientInfo> clients = new ConcurrentHashMap<>();
+    private static void saveCandles(byte[] state, long nextTradeId) throws IOException {
+        CandleStore.store(CANDLES_FILE, state);
+        candlesSavedTradeId = nextTradeId;
+    }
 
     /* Inizializza il book degli ordini e processa quelli esistenti */
     public Set<Integer> initializeOrderBook() throws Exception {
-        loadOrders();
+        if (OrderJournal.exists(JOURNAL_FILE)) {
+            journal = new OrderJournal(JOURNAL_FILE);
+            long from = 0;
+
+            // Parte dallo snapshot più recente e rilegge solo la coda del journal
+            BookSnapshot snapshot = BookSnapshot.loadLatest(SNAPSHOT_DIR);
+            if (snapshot != null && snapshot.getJournalOffset() <= journal.position()) {
+                for (Order order : snapshot.getOrders()) {
+                    insertResting(order);
+                }
+                from = snapshot.getJournalOffset();
+                lastSnapshotOffset = from;
+                System.out.println("Snapshot caricato: " + snapshot.getOrders().size() + " ordini, offset " + from);
+            }
+            long end = journal.recover(from, CompraVendita::applyJournalEntry);
+            System.out.println("Journal ripristinato da " + from + " fino all'offset " + end);
+        } else {
+            // Primo avvio: importa Orders.json e da qui in poi il journal è la fonte di verità
+            loadOrders();
+            journal = new OrderJournal(JOURNAL_FILE);
+            for (Order order : ordersMap.values()) {
+                if (bidOrders.contains(order.getOrderId()) || askOrders.contains(order.getOrderId())
+                        || stopBook(order).contains(order.getOrderId())) {
+                    journal.appendNew(order);
+                }
+            }
+        }
+        historyIndex = HistoryIndex.open(HISTORY_INDEX_FILE, journal);
+        tradeTape = TradeTape.open(TAPE_DIR, TAPE_SEGMENT_RECORDS);
+        loadCandles();
         processStopOrders();  // Attiva eventuali stop orders
-        return matching();    // Esegue il matching iniziale
+        Set<Integer> ordersToNotify = matching(); // Esegue il matching iniziale
+        publishChanges();     // Prima vista della profondità e gauge del book
+        return ordersToNotify;
+    }
+
+    /*
+     * Riapplica al book un evento del journal (senza rieseguire il matching).
+     * FILL, CANCEL, MODIFY e TRIGGER si risolvono per orderId: è esatto perché addOrder rifiuta l'orderId di un
+     * ordine aperto, quindi un NEW con un ID riusato segue sempre l'ultimo evento dell'ordine precedente
+     * (eseguito o cancellato, e già tolto da ordersMap) e da lì in poi l'ID indica solo quello nuovo
+     */
+    private static void applyJournalEntry(OrderJournal.Entry entry) {
+        switch (entry.getType()) {
+            case OrderJournal.NEW:
+                insertResting(entry.getOrder());
+                break;
+            case OrderJournal.FILL: {
+                Order order = ordersMap.get(entry.getOrderId());
+                if (order == null) break;
+                if (bidOrders.contains(order.getOrderId())) {
+                    bidOrders.fill(order, entry.getQuantity());
+                } else if (askOrders.contains(order.getOrderId())) {
+                    askOrders.fill(order, entry.getQuantity());
+                } else {
+                    order.setSize(order.getSize() - entry.getQuantity());
+                }
+                if (order.getSize() <= 0) retire(order);
+                break;
+            }
+            case OrderJournal.CANCEL:
+                bidOrders.remove(entry.getOrderId());
+                askOrders.remove(entry.getOrderId());
+                buyStops.remove(entry.getOrderId());
+                sellStops.remove(entry.getOrderId());
+                ordersMap.remove(entry.getOrderId());
+                break;
+            case OrderJournal.MODIFY: {
+                Order order = ordersMap.get(entry.getOrderId());
+                if (order == null) break;
+                OrderBook book = "bid".equals(order.getType()) ? bidOrders : askOrders;
+                if (book.contains(order.getOrderId())) {
+                    applyModify(book, order, entry.getQuantity(), entry.getPrice(), entry.getTimestamp());
+                }
+                break;
+            }
+            case OrderJournal.TRIGGER: {
+                Order order = ordersMap.get(entry.getOrderId());
+                if (order != null) {
+                    // Diventa un market: le sue esecuzioni non toccano il book e l'ordine non è più aperto
+                    stopBook(order).remove(order.getOrderId());
+                    order.setOrderType("market");
+                    retire(order);
+                }
+                break;
+            }
+        }
+    }
+
+    // Inserisce un ordine ripristinato nel book (limit) o tra gli stop, senza matching; un market è già chiuso
+    private static void insertResting(Order order) {
+        recentOrderIds.add(order.getOrderId());
+        if ("limit".equals(order.getOrderType())) {
+            ordersMap.put(order.getOrderId(), order);
+            if ("bid".equals(order.getType())) {
+                bidOrders.add(order);
+            } else {
+                askOrders.add(order);
+            }
+        } else if ("stop".equals(order.getOrderType())) {
+            ordersMap.put(order.getOrderId(), order);
+            stopBook(order).add(order);
+        }
+    }
+
+    // L'ordine è stato eseguito o cancellato: resta solo il suo orderId tra quelli recenti
+    private static void retire(Order order) {
+        ordersMap.remove(order.getOrderId(), order);
+    }
+
+    // Un orderId è in uso se il suo ordine è aperto o se è tra gli ultimi RECENT_ORDER_IDS accettati
+    private static boolean orderIdInUse(int orderId) {
+        return ordersMap.containsKey(orderId) || recentOrderIds.contains(orderId);
+    }
+
+    /**
+     * Avvia gli snapshot periodici in background: la copia del book avviene con accesso
+     * esclusivo (sul thread del motore se attivo), la scrittura su disco fuori dal percorso critico
+     */
+    public void startSnapshots(long intervalSeconds) {
+        snapshotScheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "book-snapshot");
+            thread.setDaemon(true);
+            return thread;
+        });
+        snapshotScheduler.scheduleWithFixedDelay(this::takeSnapshot, intervalSeconds, intervalSeconds, TimeUnit.SECONDS);
+    }
+
+    /* Scrive uno snapshot se il journal è avanzato dall'ultimo */
+    public void takeSnapshot() {
+        try {
+            // Anche l'indice dello storico e il nastro dei trade vengono portati avanti qui, fuori dalle richieste
+            historyIndex.refresh();
+            tradeTape.force();
+        } catch (IOException e) {
+            System.err.println("Errore nell'aggiornamento dell'indice dello storico: " + e.getMessage());
+        }
+        try {
+            // Candele copiate dal motore, coerenti con il nastro, e scritte qui dopo la sua force;
+            // nessun salvataggio se non ci sono trade nuovi
+            long[] nextTradeId = new long[1];
+            byte[] state = execute(cv -> {
+                nextTradeId[0] = tradeTape.getNextTradeId();
+                return nextTradeId[0] == candlesSavedTradeId ? null : candles.serialize(nextTradeId[0]);
+            }).join();
+            if (state != null) {
+                saveCandles(state, nextTradeId[0]);
+            }
+        } catch (Exception e) {
+            System.err.println("Errore nel salvataggio delle candele: " + e.getMessage());
+        }
+        try {
+            BookSnapshot snapshot = execute(CompraVendita::captureSnapshot).join();
+            if (snapshot.getJournalOffset() == lastSnapshotOffset) return;
+            snapshot.write(SNAPSHOT_DIR);
+            BookSnapshot.prune(SNAPSHOT_DIR, 2);
+            lastSnapshotOffset = snapshot.getJournalOffset();
+            System.out.println("Snapshot del book scritto: " + snapshot.getOrders().size() + " ordini, offset " + lastSnapshotOffset);
+        } catch (Exception e) {
+            System.err.println("Errore durante lo snapshot del book: " + e.getMessage());
+        }
+    }
+
+    // Copia gli ordini aperti e la posizione del journal: va eseguito con accesso esclusivo al book
+    private BookSnapshot captureSnapshot() {
+        List<Order> orders = new ArrayList<>(bidOrders.size() + askOrders.size() + buyStops.size() + sellStops.size());
+        for (PriceLevel level : bidOrders.levels()) {
+            level.forEach(order -> orders.add(copyOf(order)));
+        }
+        for (PriceLevel level : askOrders.levels()) {
+            level.forEach(order -> orders.add(copyOf(order)));
+        }
+        for (PriceLevel level : buyStops.levels()) {
+            level.forEach(order -> orders.add(copyOf(order)));
+        }
+        for (PriceLevel level : sellStops.levels()) {
+            level.forEach(order -> orders.add(copyOf(order)));
+        }
+        return new BookSnapshot(journal.position(), orders);
+    }
+
+    private static Order copyOf(Order order) {
+        return new Order(order.getOrderId(), order.getUserId(), order.getType(), order.getOrderType(),
+                order.getSize(), order.getPrice(), order.getStopPrice(), order.getTimestamp());
     }
 
     /* Carica gli ordini dal file JSON */
@@ -40,35 +308,151 @@ public class CompraVendita {
             try (FileReader reader = new FileReader(ORDER_FILE)) {
                 JsonArray jsonArray = JsonParser.parseReader(reader).getAsJsonArray();
                 for (JsonElement jsonElement : jsonArray) {
-                    Order order = gson.fromJson(jsonElement, Order.class);
-                    ordersMap.put(order.getOrderId(), order);
-
-                    switch (order.getOrderType()) {
-                        case "limit":
-                            if ("bid".equals(order.getType())) {
-                                bidOrders.add(order);
-                            } else {
-                                askOrders.add(order);
-                            }
-                            break;
-                        case "stop":
-                            stopOrders.add(order);
-                            break;
-                    }
+                    insertResting(gson.fromJson(jsonElement, Order.class));
                 }
             }
         }
     }
 
-    /* Aggiunge un nuovo ordine, lo persiste e ricalcola il matching */
+    /*
+     * Aggiunge un nuovo ordine, lo persiste e ricalcola il matching.
+     * Le metriche condividono gli istanti letti (System.nanoTime non è gratuito): journal dall'inizio,
+     * matching (con la pubblicazione dei cambiamenti) fino alla fine
+     * @return gli ordini da notificare, null se l'orderId è già in uso (l'ordine non viene registrato)
+     */
     public Set<Integer> addOrder(Order order) {
-        ordersMap.put(order.getOrderId(), order);
+        // Gli orderId arrivano dai client: uno di un ordine aperto lo renderebbe irraggiungibile,
+        // uno recente è quasi sempre un duplicato dello stesso ordine
+        if (orderIdInUse(order.getOrderId())) {
+            return null;
+        }
+        long start = System.nanoTime();
+        PhaseTimer timer = phaseTimer;
+        long time = timer == null ? 0 : timer.start();
+        // Write-ahead: l'ordine viene registrato nel journal prima di toccare il book
+        if (journal != null) {
+            try {
+                journal.appendNew(order);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            journalTimer.record(System.nanoTime() - start);
+        }
+        if (timer != null) time = timer.mark(0, time);
+        place(order);
+        if (timer != null) time = timer.mark(1, time);
+
+        processStopOrders();
+        if (timer != null) time = timer.mark(2, time);
+        // Richiamo matching, ovvero ricontrollo la situazione rispetto alla precedente
+        long matchingStart = System.nanoTime();
+        Set<Integer> ordersToNotify = matching();
+        publishChanges();
+        long end = System.nanoTime();
+        if (timer != null) timer.mark(3, time);
+        matchingTimer.record(end - matchingStart);
+        addOrderTimer.record(end - start);
+        return ordersToNotify;
+    }
+
+    /**
+     * Politica di durabilità del journal. Con syncMillis = 0 il journal viene forzato su disco alla fine di ogni
+     * gruppo di comandi del motore (o di ogni operazione sotto bookLock) prima delle risposte: un ordine confermato
+     * sopravvive a un crash. Con syncMillis > 0 la force avviene in background ogni syncMillis millisecondi
+     * e un crash può perdere le operazioni già confermate nell'ultimo intervallo.
+     * Senza chiamare questo metodo (strumenti di misura e replay) il journal non viene mai forzato
+     */
+    public void setJournalSync(long syncMillis) {
+        if (syncMillis <= 0) {
+            syncEachGroup = true;
+            return;
+        }
+        syncEachGroup = false;
+        journalSyncScheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "journal-sync");
+            thread.setDaemon(true);
+            return thread;
+        });
+        journalSyncScheduler.scheduleWithFixedDelay(() -> {
+            try {
+                journal.force();
+            } catch (IOException e) {
+                System.err.println("Errore nella force del journal: " + e.getMessage());
+            }
+        }, syncMillis, syncMillis, TimeUnit.MILLISECONDS);
+    }
+
+    boolean syncsEachGroup() {
+        return syncEachGroup;
+    }
+
+    /* Con la politica per gruppo forza il journal se è avanzato dall'ultima volta (accesso esclusivo al book) */
+    void syncJournal() throws IOException {
+        if (!syncEachGroup || journal == null) return;
+        long position = journal.position();
+        if (position != syncedPosition) {
+            journal.force();
+            syncedPosition = position;
+        }
+    }
+
+    /* Misura le fasi di addOrder (ADD_PHASES) nel timer indicato, null per smettere */
+    public void setPhaseTimer(PhaseTimer timer) {
+        this.phaseTimer = timer;
+    }
+
+    /**
+     * Aggiunge un gruppo di ordini nell'ordine dato: un'unica scrittura sul journal,
+     * poi stop e matching una sola volta alla fine del gruppo. Metriche come in addOrder, con il gruppo intero
+     * in engine.addorders (engine.addorder resta la latenza del singolo ordine)
+     * @return per ogni ordine, true se accettato, false se il suo orderId era già in uso
+     */
+    public boolean[] addOrders(List<Order> orders) {
+        boolean[] accepted = new boolean[orders.size()];
+        Set<Integer> batchIds = new HashSet<>();
+        List<Order> valid = new ArrayList<>(orders.size());
+        for (int i = 0; i < accepted.length; i++) {
+            Order order = orders.get(i);
+            if (!orderIdInUse(order.getOrderId()) && batchIds.add(order.getOrderId())) {
+                accepted[i] = true;
+                valid.add(order);
+            }
+        }
+        if (valid.isEmpty()) return accepted;
+
+        long start = System.nanoTime();
+        if (journal != null) {
+            try {
+                journal.appendNew(valid);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            journalTimer.record(System.nanoTime() - start);
+        }
+        for (Order order : valid) {
+            place(order);
+        }
+
+        processStopOrders();
+        long matchingStart = System.nanoTime();
+        matching();
+        publishChanges();
+        long end = System.nanoTime();
+        matchingTimer.record(end - matchingStart);
+        addOrdersTimer.record(end - start);
+        return accepted;
+    }
+
+    // Inserisce l'ordine nel book (i market vengono eseguiti subito e non restano tra gli ordini aperti)
+    private void place(Order order) {
+        recentOrderIds.add(order.getOrderId());
 
         switch (order.getOrderType()) {
             case "market":
                 executeMarketOrder(order);
                 break;
             case "limit":
+                ordersMap.put(order.getOrderId(), order);
                 if (order.getType().equals("bid")) {
                     bidOrders.add(order);
                 } else {
@@ -76,27 +460,191 @@ public class CompraVendita {
                 }
                 break;
             case "stop":
-                stopOrders.add(order);
+                ordersMap.put(order.getOrderId(), order);
+                stopBook(order).add(order);
                 break;
         }
+    }
+
+    // Indice degli stop del lato dell'ordine
+    private static OrderBook stopBook(Order order) {
+        return "bid".equals(order.getType()) ? buyStops : sellStops;
+    }
+
+    /* Avvia il motore di matching a singolo scrittore alimentato dal ring buffer */
+    public void startEngine(int ringSize) {
+        engine = new MatchingEngine(this, ringSize);
+        engine.start();
+    }
+
+    /**
+     * Punto di ingresso per i thread dei client: con il motore attivo l'ordine viene pubblicato
+     * nel ring buffer, altrimenti viene eseguito subito sotto bookLock
+     */
+    public CompletableFuture<Set<Integer>> submitOrder(Order order) {
+        if (engine != null) {
+            return engine.submit(order);
+        }
+        bookLock.lock();
+        try {
+            Set<Integer> ordersToNotify = addOrder(order);
+            syncJournal();
+            return CompletableFuture.completedFuture(ordersToNotify);
+        } catch (RuntimeException | IOException e) {
+            return CompletableFuture.failedFuture(e);
+        } finally {
+            bookLock.unlock();
+        }
+    }
+
+    /**
+     * Cancella un ordine ancora aperto dell'utente: l'evento viene aggiunto al journal e l'ordine
+     * viene scollegato dal suo livello di prezzo tramite l'indice per orderId, in tempo costante
+     * @return 100 se cancellato, 404 se inesistente, di un altro utente, già eseguito o già cancellato
+     */
+    public int cancelOrder(String username, int orderId) {
+        Order order = ordersMap.get(orderId);
+        if (order == null || username == null || !username.equals(order.getUserId())) {
+            return 404;
+        }
+        OrderBook book = "bid".equals(order.getType()) ? bidOrders : askOrders;
+        boolean resting = book.contains(orderId);
+        if (!resting && !stopBook(order).contains(orderId)) {
+            return 404;
+        }
+
+        if (journal != null) {
+            try {
+                journal.appendCancel(orderId);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        if (resting) {
+            book.remove(orderId);
+        } else {
+            stopBook(order).remove(orderId);
+        }
+        publishChanges(); // Anche per gli stop: il gauge pendingStops deve scendere
+        retire(order);
+        return 100;
+    }
+
+    /**
+     * Modifica quantità e/o prezzo di un limit order ancora nel book.
+     * Una riduzione di quantità allo stesso prezzo avviene sul posto e l'ordine mantiene la priorità;
+     * un cambio di prezzo o un aumento di quantità è una rimozione e un reinserimento atomici
+     * in coda al livello, seguiti dal matching
+     * @param newSize nuova quantità residua, 0 per lasciarla invariata
+     * @param newPrice nuovo prezzo, 0 per lasciarlo invariato
+     * @return gli ordini da notificare, null se l'ordine non è un limit aperto dell'utente
+     */
+    public Set<Integer> modifyOrder(String username, int orderId, int newSize, int newPrice) {
+        Order order = ordersMap.get(orderId);
+        if (order == null || username == null || !username.equals(order.getUserId())) {
+            return null;
+        }
+        OrderBook book = "bid".equals(order.getType()) ? bidOrders : askOrders;
+        if (!book.contains(orderId)) {
+            return null;
+        }
+        int size = newSize > 0 ? newSize : order.getSize();
+        int price = newPrice > 0 ? newPrice : order.getPrice();
+        if (size == order.getSize() && price == order.getPrice()) {
+            return new HashSet<>();
+        }
+
+        long timestamp = System.currentTimeMillis();
+        if (journal != null) {
+            try {
+                journal.appendModify(orderId, size, price, timestamp);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        applyModify(book, order, size, price, timestamp);
 
-        updateOrdersFile();
         processStopOrders();
-        // Richiamo matching, ovvero ricontrollo la situazione rispetto alla precedente
-        return matching();
+        Set<Integer> ordersToNotify = matching();
+        publishChanges();
+        return ordersToNotify;
+    }
+
+    public CompletableFuture<Set<Integer>> submitModify(String username, int orderId, int newSize, int newPrice) {
+        return execute(cv -> cv.modifyOrder(username, orderId, newSize, newPrice));
+    }
+
+    // Applica la modifica al book (usato anche nel ripristino dal journal)
+    private static void applyModify(OrderBook book, Order order, int size, int price, long timestamp) {
+        if (price == order.getPrice() && size < order.getSize()) {
+            book.reduce(order.getOrderId(), size);
+        } else {
+            book.remove(order.getOrderId());
+            order.setSize(size);
+            order.setPrice(price);
+            order.setTimestamp(timestamp);
+            book.add(order);
+        }
+    }
+
+    /* Cancellazione eseguita con accesso esclusivo al book, come gli inserimenti */
+    public CompletableFuture<Integer> submitCancel(String username, int orderId) {
+        return execute(cv -> cv.cancelOrder(username, orderId));
+    }
+
+    /* Come submitOrder per un gruppo di ordini, applicati in un solo passaggio */
+    public CompletableFuture<boolean[]> submitBatch(List<Order> orders) {
+        return execute(cv -> cv.addOrders(orders));
+    }
+
+    /**
+     * Esegue un'operazione con accesso esclusivo al book: sul thread del motore se attivo,
+     * altrimenti sotto bookLock come gli inserimenti
+     */
+    public <T> CompletableFuture<T> execute(Function<CompraVendita, T> task) {
+        if (engine != null) {
+            return engine.submitTask(task);
+        }
+        bookLock.lock();
+        try {
+            T value = task.apply(this);
+            syncJournal();
+            return CompletableFuture.completedFuture(value);
+        } catch (RuntimeException | IOException e) {
+            return CompletableFuture.failedFuture(e);
+        } finally {
+            bookLock.unlock();
+        }
     }
 
-    /* Processa Stop Orders: attiva quelli che hanno raggiunto il trigger */
+    /**
+     * Processa Stop Orders: attiva quelli che hanno raggiunto il trigger.
+     * Si guarda solo la testa degli indici (buy stop con trigger <= miglior ask, sell stop con
+     * trigger >= miglior bid) e si ricontrolla dopo ogni esecuzione, che può attivarne altri a cascata
+     */
     private void processStopOrders() {
-        Iterator<Order> iterator = stopOrders.iterator();
-        while (iterator.hasNext()) {
-            Order stopOrder = iterator.next();
-            if ((stopOrder.getType().equals("bid") && stopOrder.getStopPrice() <= getBestAskPrice()) ||
-                    (stopOrder.getType().equals("ask") && stopOrder.getStopPrice() >= getBestBidPrice())) {
-                stopOrder.setOrderType("market");
-                executeMarketOrder(stopOrder);
-                iterator.remove();
+        while (true) {
+            Order stopOrder = buyStops.peek();
+            if (stopOrder == null || stopOrder.getStopPrice() > getBestAskPrice()) {
+                stopOrder = sellStops.peek();
+                if (stopOrder == null || stopOrder.getStopPrice() < getBestBidPrice()) {
+                    return;
+                }
+            }
+            if (journal != null) {
+                try {
+                    journal.appendTrigger(stopOrder.getOrderId());
+                } catch (IOException e) {
+                    // L'ordine che ha mosso il prezzo è già nel book: lo stop resta in attesa e verrà
+                    // attivato dalla prossima operazione, invece di far fallire un ordine ormai attivo
+                    journalError("l'attivazione dello stop " + stopOrder.getOrderId(), e);
+                    return;
+                }
             }
+            stopBook(stopOrder).remove(stopOrder.getOrderId());
+            stopOrder.setOrderType("market");
+            retire(stopOrder);
+            executeMarketOrder(stopOrder);
         }
     }
 
@@ -106,19 +654,19 @@ public class CompraVendita {
             while (!askOrders.isEmpty() && order.getSize() > 0) {
                 Order bestAsk = askOrders.peek();
                 int tradeSize = Math.min(order.getSize(), bestAsk.getSize());
-                executeTrade(order, bestAsk, tradeSize);
+                if (!executeTrade(order, bestAsk, tradeSize)) return;
                 order.setSize(order.getSize() - tradeSize);
-                bestAsk.setSize(bestAsk.getSize() - tradeSize);
-                if (bestAsk.getSize() == 0) askOrders.poll();
+                askOrders.fill(bestAsk, tradeSize);
+                if (bestAsk.getSize() <= 0) retire(bestAsk);
             }
         } else if (order.getType().equals("ask")) {
             while (!bidOrders.isEmpty() && order.getSize() > 0) {
                 Order bestBid = bidOrders.peek();
                 int tradeSize = Math.min(order.getSize(), bestBid.getSize());
-                executeTrade(bestBid, order, tradeSize);
+                if (!executeTrade(bestBid, order, tradeSize)) return;
                 order.setSize(order.getSize() - tradeSize);
-                bestBid.setSize(bestBid.getSize() - tradeSize);
-                if (bestBid.getSize() == 0) bidOrders.poll();
+                bidOrders.fill(bestBid, tradeSize);
+                if (bestBid.getSize() <= 0) retire(bestBid);
             }
         }
     }
@@ -133,189 +681,235 @@ public class CompraVendita {
 
             if (bestBid.getPrice() >= bestAsk.getPrice()) {
                 int tradeSize = Math.min(bestBid.getSize(), bestAsk.getSize());
+                if (!executeTrade(bestBid, bestAsk, tradeSize)) {
+                    break; // Il book resta incrociato: il matching riprova alla prossima operazione
+                }
                 ordersToNotify.add(bestBid.getOrderId());
                 ordersToNotify.add(bestAsk.getOrderId());
-                executeTrade(bestBid, bestAsk, tradeSize);
 
-                bestBid.setSize(bestBid.getSize() - tradeSize);
-                bestAsk.setSize(bestAsk.getSize() - tradeSize);
-
-                if (bestBid.getSize() == 0) bidOrders.poll();
-                if (bestAsk.getSize() == 0) askOrders.poll();
+                bidOrders.fill(bestBid, tradeSize);
+                askOrders.fill(bestAsk, tradeSize);
+                if (bestBid.getSize() <= 0) retire(bestBid);
+                if (bestAsk.getSize() <= 0) retire(bestAsk);
             } else {
                 break;
             }
         }
-
-        updateOrdersFile();
-
-        System.out.println(ordersToNotify);
-
-
-
         return ordersToNotify;
     }
 
-    /* Esegue il trade e lo registra */
-    private void executeTrade(Order bid, Order ask, int tradeSize) {
-        System.out.println("Trade eseguito: " + tradeSize + " unità al prezzo " + ask.getPrice());
-        saveCompletedOrder(bid.getOrderId(), ask.getOrderId(), tradeSize, ask.getPrice());
-    }
-
-    /* Salva il trade completato in CompletedOrders.json */
-    private void saveCompletedOrder(int orderId, int matchedOrderId, int size, int price) {
-        /*try {
-            JsonArray completedOrders;
-            if (Files.exists(Paths.get(COMPLETED_ORDERS_FILE))) {
-                completedOrders = JsonParser.parseReader(new FileReader(COMPLETED_ORDERS_FILE)).getAsJsonArray();
-            } else {
-                completedOrders = new JsonArray();
+    /**
+     * Registra il trade nel journal e poi lo esegue. Si arriva qui con l'ordine entrante già nel book e nel journal:
+     * se la registrazione fallisce il trade non avviene (book e journal restano allineati) e il chiamante interrompe
+     * il matching, senza far fallire un ordine che è comunque attivo
+     * @return false se il trade non è stato registrato e quindi non è stato eseguito
+     */
+    private boolean executeTrade(Order bid, Order ask, int tradeSize) {
+        if (journal != null) {
+            try {
+                journal.appendTrade(bid.getOrderId(), ask.getOrderId(), tradeSize, ask.getPrice());
+            } catch (IOException e) {
+                journalError("il trade tra " + bid.getOrderId() + " e " + ask.getOrderId(), e);
+                return false;
             }
+        }
+        long timestamp = System.currentTimeMillis();
+        tradeCount++;
+        tradeCounter.increment();
+        saveCompletedOrder(bid.getOrderId(), ask.getOrderId(), tradeSize, ask.getPrice(), timestamp);
+        candles.onTrade(timestamp, ask.getPrice(), tradeSize);
+
+        MarketDataFeed marketData = feed;
+        if (marketData != null) {
+            marketData.trade(ask.getPrice(), tradeSize, bid.getOrderId(), ask.getOrderId());
+        }
 
-            JsonObject trade = new JsonObject();
-            trade.addProperty("orderId", orderId);
-            trade.addProperty("matchedOrderId", matchedOrderId);
-            trade.addProperty("size", size);
-            trade.addProperty("price", price);
-            trade.addProperty("timestamp", System.currentTimeMillis());
-
-            completedOrders.add(trade);
+        // Solo un inserimento in coda: l'invio avviene sul thread del notificatore
+        UdpNotifier udpNotifier = notifier;
+        if (udpNotifier != null) {
+            udpNotifier.fill(bid.getUserId(), bid.getOrderId(), tradeSize, ask.getPrice());
+            udpNotifier.fill(ask.getUserId(), ask.getOrderId(), tradeSize, ask.getPrice());
+        }
+        return true;
+    }
 
-            try (FileWriter writer = new FileWriter(COMPLETED_ORDERS_FILE)) {
-                gson.toJson(completedOrders, writer);
-            }
-        } catch (IOException e) {
-            e.printStackTrace();
-        }*/
+    private static void journalError(String what, IOException e) {
+        journalErrors.increment();
+        System.err.println("❌ Impossibile registrare nel journal " + what + ": " + e.getMessage());
     }
 
-    /* Rimuove gli ordini completati da Orders.json */
-    private void updateOrdersFile() {
+    /*
+     * Salva il trade completato nel nastro dei trade (una scrittura in memoria mappata, nessuna system call).
+     * Il trade è già nel journal e nel book: un errore del nastro lo toglie solo dallo storico, non lo annulla
+     */
+    private void saveCompletedOrder(int orderId, int matchedOrderId, int size, int price, long timestamp) {
+        if (tradeTape == null) return;
         try {
-            JsonArray updatedOrders = new JsonArray();
-            for (Order order : ordersMap.values()) {
-                if (order.getSize() > 0) {
-                    updatedOrders.add(gson.toJsonTree(order));
-                }
-            }
-            try (FileWriter writer = new FileWriter(ORDER_FILE)) {
-                gson.toJson(updatedOrders, writer);
-            }
+            tradeTape.append(timestamp, orderId, matchedOrderId, price, size);
         } catch (IOException e) {
-            e.printStackTrace();
+            System.err.println("❌ Impossibile salvare il trade " + orderId + "/" + matchedOrderId + " nel nastro: " + e.getMessage());
         }
     }
 
-    /* Ottiene il miglior prezzo BID */
-    private int getBestBidPrice() {
-        return bidOrders.isEmpty() ? 0 : bidOrders.peek().getPrice();
+    /* Journal degli eventi sugli ordini */
+    public OrderJournal getJournal() {
+        return journal;
     }
 
-    /* Ottiene il miglior prezzo ASK */
-    private int getBestAskPrice() {
-        return askOrders.isEmpty() ? Integer.MAX_VALUE : askOrders.peek().getPrice();
+    /* Nastro dei trade: i lettori lo seguono con TradeTape.Reader sulla stessa cartella */
+    public TradeTape getTradeTape() {
+        return tradeTape;
     }
 
-    // Comparatori
-    static class BidComparator implements Comparator<Order> {
-        @Override
-        public int compare(Order o1, Order o2) {
-            if (o1.getPrice() != o2.getPrice()) {
-                return Integer.compare(o2.getPrice(), o1.getPrice());
-            }
-            return Long.compare(o1.getTimestamp(), o2.getTimestamp());
-        }
+    /* Trade eseguiti dall'avvio */
+    public long getTradeCount() {
+        return tradeCount;
     }
 
-    static class AskComparator implements Comparator<Order> {
-        @Override
-        public int compare(Order o1, Order o2) {
-            if (o1.getPrice() != o2.getPrice()) {
-                return Integer.compare(o1.getPrice(), o2.getPrice());
-            }
-            return Long.compare(o1.getTimestamp(), o2.getTimestamp());
-        }
+    /* Candele OHLCV, leggibili da qualsiasi thread */
+    public CandleStore getCandles() {
+        return candles;
     }
 
-
-    // Classe per memorizzare informazioni sui client
-    static class ClientInfo {
-        InetAddress address;
-        int port;
-
-        ClientInfo(InetAddress address, int port) {
-            this.address = address;
-            this.port = port;
-        }
+    /* Indice dello storico per utente e mese */
+    public HistoryIndex getHistoryIndex() {
+        return historyIndex;
     }
 
-    // Metodo per registrare un client (quando un utente si connette)
-    public void registerClient(int userId, InetAddress address, int port) {
-        clients.put(userId, new ClientInfo(address, port));
-        System.out.println("Client registrato: User ID " + userId + " - IP: " + address + " - Porta: " + port);
+    /* Ordine aperto (nel book o tra gli stop), null se eseguito, cancellato o inesistente */
+    public Order getOrder(int orderId) {
+        return ordersMap.get(orderId);
     }
 
-    // Metodo per ascoltare le registrazioni dei client via UDP
-    public void listenForRegistrations() {
-        try (DatagramSocket socket = new DatagramSocket(6000)) {
-            byte[] buffer = new byte[1024];
-            System.out.println("Server in attesa di registrazioni dai client...");
+    /* Ottiene il miglior prezzo BID */
+    private int getBestBidPrice() {
+        PriceLevel best = bidOrders.bestLevel();
+        return best == null ? 0 : best.getPrice();
+    }
 
-            while (true) {
-                DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
-                socket.receive(packet);
+    /* Ottiene il miglior prezzo ASK */
+    private int getBestAskPrice() {
+        PriceLevel best = askOrders.bestLevel();
+        return best == null ? Integer.MAX_VALUE : best.getPrice();
+    }
 
-                String message = new String(packet.getData(), 0, packet.getLength());
-                if (message.startsWith("REGISTER")) {
-                    String[] parts = message.split("=");
-                    if (parts.length < 2) continue; // Messaggio non valido
+    /**
+     * Profondità aggregata del book: una lettura volatile della vista che chi modifica il book ripubblica
+     * in publishChanges, quindi i lettori non passano mai dal motore né da bookLock.
+     * Sotto carico la vista può essere indietro al più di circa due DEPTH_REFRESH_MILLIS
+     */
+    public DepthView getDepth() {
+        return depthView;
+    }
 
-                    int userId = Integer.parseInt(parts[1].trim());
-                    InetAddress address = packet.getAddress();
-                    int port = packet.getPort();
+    /**
+     * Ripubblica la vista se il book è cambiato, al più una volta ogni DEPTH_REFRESH_MILLIS salvo force:
+     * il primo cambiamento dopo una pausa è visibile subito, una raffica costa una ricostruzione per intervallo.
+     * Va eseguito con accesso esclusivo al book
+     */
+    private void refreshDepth(boolean force) {
+        DepthView view = depthView;
+        long version = bookVersion;
+        if (view != null && view.getVersion() == version) return;
+        long now = System.nanoTime();
+        if (!force && view != null && now - depthBuiltAt < TimeUnit.MILLISECONDS.toNanos(DEPTH_REFRESH_MILLIS)) return;
+        depthView = new DepthView(version, bidOrders, askOrders);
+        depthBuiltAt = now;
+    }
 
-                    registerClient(userId, address, port);
-                }
+    /*
+     * Avvia il recupero delle ricostruzioni saltate: se dopo una raffica la vista è rimasta indietro
+     * e il book non cambia più, un solo task ogni DEPTH_REFRESH_MILLIS la ripubblica (non uno per lettore)
+     */
+    public void startDepthRefresh() {
+        depthScheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "depth-refresh");
+            thread.setDaemon(true);
+            return thread;
+        });
+        depthScheduler.scheduleWithFixedDelay(() -> {
+            DepthView view = depthView;
+            if (view == null || view.getVersion() != bookVersion) {
+                execute(cv -> {
+                    cv.refreshDepth(true);
+                    return null;
+                }).join();
             }
-        } catch (Exception e) {
-            e.printStackTrace();
-        }
+        }, DEPTH_REFRESH_MILLIS, DEPTH_REFRESH_MILLIS, TimeUnit.MILLISECONDS);
     }
 
+    /* Registra i gauge del book, del motore e dei canali UDP nel registro delle metriche */
+    public void registerMetrics() {
+        Metrics.gauge("book.bid.levels", () -> bidLevels);
+        Metrics.gauge("book.ask.levels", () -> askLevels);
+        Metrics.gauge("book.orders", () -> restingOrders);
+        Metrics.gauge("book.stops", () -> pendingStops);
+        Metrics.gauge("engine.backlog", () -> {
+            MatchingEngine matchingEngine = engine;
+            return matchingEngine == null ? 0 : matchingEngine.backlog();
+        });
+        Metrics.gauge("udp.notify.dropped", () -> {
+            UdpNotifier udpNotifier = notifier;
+            return udpNotifier == null ? 0 : udpNotifier.getDropped();
+        });
+        Metrics.gauge("udp.marketdata.dropped", () -> {
+            MarketDataFeed marketData = feed;
+            return marketData == null ? 0 : marketData.getDropped();
+        });
+    }
 
+    /* Avvia il notificatore UDP delle esecuzioni, che riceve anche le registrazioni dei client */
+    public void startNotifier(int udpPort) throws IOException {
+        UdpNotifier udpNotifier = new UdpNotifier(udpPort);
+        udpNotifier.start();
+        notifier = udpNotifier;
+    }
+
+    public UdpNotifier getNotifier() {
+        return notifier;
+    }
 
-    // MESSAGGIO UDP
     /**
-     * prende tutti gli iD e mandare una notifica
+     * Avvia il market data multicast: da qui in poi ogni operazione sul book pubblica i livelli
+     * cambiati e i trade, e ogni snapshotSeconds viene inviata l'intera profondità
      */
-    public void MessageUDP(Set<Integer> ordersToNotify) {
-        try (DatagramSocket socket = new DatagramSocket()) {
-            for (Integer orderId : ordersToNotify) {
-                Order order = ordersMap.get(orderId);
-                if (order == null) continue;
-
-                ClientInfo buyerInfo = clients.get(order.getBuyerId());
-                ClientInfo sellerInfo = clients.get(order.getSellerId());
-
-                String message = "Ordine completato: ID " + orderId + " | Quantità: " + order.getSize() +
-                        " | Prezzo: " + order.getPrice();
-                byte[] buffer = message.getBytes();
-
-                // Invia notifica all'acquirente
-                if (buyerInfo != null) {
-                    DatagramPacket buyerPacket = new DatagramPacket(buffer, buffer.length, buyerInfo.address, buyerInfo.port);
-                    socket.send(buyerPacket);
-                }
+    public void startMarketData(MarketDataFeed marketData, long snapshotSeconds) throws IOException {
+        marketData.start();
+        execute(cv -> {
+            bidOrders.trackChanges();
+            askOrders.trackChanges();
+            feed = marketData;
+            marketData.snapshot(bidOrders, askOrders);
+            return null;
+        }).join();
+
+        marketDataScheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "market-data-snapshot");
+            thread.setDaemon(true);
+            return thread;
+        });
+        marketDataScheduler.scheduleWithFixedDelay(() -> execute(cv -> {
+            marketData.snapshot(bidOrders, askOrders);
+            return null;
+        }), snapshotSeconds, snapshotSeconds, TimeUnit.SECONDS);
+    }
 
-                // Invia notifica al venditore
-                if (sellerInfo != null) {
-                    DatagramPacket sellerPacket = new DatagramPacket(buffer, buffer.length, sellerInfo.address, sellerInfo.port);
-                    socket.send(sellerPacket);
-                }
-            }
-        } catch (Exception e) {
-            e.printStackTrace();
-        }
+    // Fine di un'operazione sul book: aggiorna la versione e pubblica il market data (accesso esclusivo al book)
+    private void publishChanges() {
+        bookVersion = bidOrders.version() + askOrders.version();
+        refreshDepth(false);
+        // Scritture volatili solo quando il valore cambia
+        if (bidLevels != bidOrders.levelCount()) bidLevels = bidOrders.levelCount();
+        if (askLevels != askOrders.levelCount()) askLevels = askOrders.levelCount();
+        int resting = bidOrders.size() + askOrders.size();
+        if (restingOrders != resting) restingOrders = resting;
+        int stops = buyStops.size() + sellStops.size();
+        if (pendingStops != stops) pendingStops = stops;
+        MarketDataFeed marketData = feed;
+        if (marketData == null) return;
+        bidOrders.drainChanges(price -> marketData.level(MarketDataFeed.BID, price, bidOrders.level(price)));
+        askOrders.drainChanges(price -> marketData.level(MarketDataFeed.ASK, price, askOrders.level(price)));
+        marketData.flush();
     }
 
-}
\ No newline at end of file
+}
@@ -0,0 +1,90 @@
+package CommonClass;
+
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+
+/*
+ * Vista immutabile della profondità aggregata del book (primi MAX_DEPTH livelli per lato)
+ * a una certa versione. Viene ricostruita solo quando il book cambia e condivisa da tutti i lettori;
+ * anche il JSON di ogni profondità richiesta viene calcolato una volta sola e riusato
+ */
+public final class DepthView {
+    public static final int MAX_DEPTH = 50;
+
+    private final long version;
+    private final long timestamp;
+    private final int[] bidPrices;
+    private final long[] bidSizes;
+    private final int[] bidOrders;
+    private final int[] askPrices;
+    private final long[] askSizes;
+    private final int[] askOrders;
+    private final ConcurrentHashMap<Integer, String> json = new ConcurrentHashMap<>(); // profondità -> risposta
+
+    // Copia i livelli migliori: va costruita con accesso esclusivo al book
+    DepthView(long version, OrderBook bids, OrderBook asks) {
+        this.version = version;
+        this.timestamp = System.currentTimeMillis();
+        int bidDepth = Math.min(MAX_DEPTH, bids.levelCount());
+        int askDepth = Math.min(MAX_DEPTH, asks.levelCount());
+        this.bidPrices = new int[bidDepth];
+        this.bidSizes = new long[bidDepth];
+        this.bidOrders = new int[bidDepth];
+        this.askPrices = new int[askDepth];
+        this.askSizes = new long[askDepth];
+        this.askOrders = new int[askDepth];
+        copy(bids.levels(), bidPrices, bidSizes, bidOrders);
+        copy(asks.levels(), askPrices, askSizes, askOrders);
+    }
+
+    private static void copy(Collection<PriceLevel> levels, int[] prices, long[] sizes, int[] orders) {
+        Iterator<PriceLevel> iterator = levels.iterator();
+        for (int i = 0; i < prices.length; i++) {
+            PriceLevel level = iterator.next();
+            prices[i] = level.getPrice();
+            sizes[i] = level.getTotalSize();
+            orders[i] = level.getOrderCount();
+        }
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    /**
+     * Risposta getorderbook con i primi depth livelli per lato
+     * @param depth numero di livelli, limitato a MAX_DEPTH
+     */
+    public String toJson(int depth) {
+        int n = Math.max(1, Math.min(depth, MAX_DEPTH));
+        return json.computeIfAbsent(n, this::render);
+    }
+
+    private String render(int depth) {
+        StringBuilder sb = new StringBuilder(64 + depth * 2 * 48);
+        sb.append("{\"response\": 100, \"version\": ").append(version)
+                .append(", \"timestamp\": ").append(timestamp)
+                .append(", \"bids\": ");
+        appendSide(sb, bidPrices, bidSizes, bidOrders, depth);
+        sb.append(", \"asks\": ");
+        appendSide(sb, askPrices, askSizes, askOrders, depth);
+        return sb.append('}').toString();
+    }
+
+    private static void appendSide(StringBuilder sb, int[] prices, long[] sizes, int[] orders, int depth) {
+        sb.append('[');
+        int n = Math.min(depth, prices.length);
+        for (int i = 0; i < n; i++) {
+            if (i > 0) sb.append(", ");
+            sb.append("{\"price\": ").append(prices[i])
+                    .append(", \"size\": ").append(sizes[i])
+                    .append(", \"orders\": ").append(orders[i]).append('}');
+        }
+        sb.append(']');
+    }
+}
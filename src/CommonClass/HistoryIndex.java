@@ -0,0 +1,228 @@
+package CommonClass;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32;
+
+/*
+ * Indice secondario dello storico: (username, mese MMYYYY) -> offset dei record NEW nel journal.
+ * Viene salvato su file con l'offset del journal che copre e aggiornato in modo incrementale
+ * leggendo solo i record successivi, quindi una richiesta di storico legge i soli record dell'utente
+ * senza passare dal motore né bloccare l'inserimento degli ordini.
+ * Il file viene riscritto solo da refresh, chiamato in background: una lookup non paga mai il salvataggio.
+ * Si indicizzano solo le append concluse (OrderJournal.position), che un errore di scrittura non può più annullare
+ */
+public class HistoryIndex {
+    private static final int MAGIC = 0x48495354; // "HIST"
+    private static final int VERSION = 1;
+
+    // Offset di un utente in un mese, in ordine di journal
+    private static final class Offsets {
+        long[] values = new long[4];
+        int size;
+
+        void add(long offset) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = offset;
+        }
+    }
+
+    private final Path path;
+    private final OrderJournal journal;
+    private final Map<String, Offsets> entries = new HashMap<>();
+    private final ReentrantLock lock = new ReentrantLock();     // Indice in memoria
+    private final ReentrantLock saveLock = new ReentrantLock(); // Un salvataggio alla volta
+    private long covered;  // Offset del journal fino a cui l'indice è aggiornato
+    private long saved;    // Valore di covered all'ultimo salvataggio (sotto saveLock)
+
+    private HistoryIndex(String file, OrderJournal journal) {
+        this.path = Paths.get(file);
+        this.journal = journal;
+    }
+
+    /**
+     * Carica l'indice salvato (se valido per questo journal) e lo completa con i record successivi;
+     * se il file manca o non è valido l'indice viene ricostruito dall'inizio del journal
+     */
+    public static HistoryIndex open(String file, OrderJournal journal) throws IOException {
+        HistoryIndex index = new HistoryIndex(file, journal);
+        if (Files.exists(index.path)) {
+            try {
+                index.read();
+            } catch (IOException | RuntimeException e) {
+                System.err.println("Indice dello storico non valido, ricostruzione: " + e.getMessage());
+                index.entries.clear();
+                index.covered = 0;
+            }
+            if (index.covered > journal.position()) {
+                // Journal più corto dell'indice (coda troncata o journal sostituito)
+                index.entries.clear();
+                index.covered = 0;
+            }
+        }
+        index.saved = index.covered;
+        long from = index.covered;
+        index.refresh();
+        System.out.println("Indice dello storico aggiornato da " + from + " a " + index.covered);
+        return index;
+    }
+
+    /* Mese di un timestamp (in millisecondi) nel formato MMYYYY */
+    public static String month(long timestamp) {
+        LocalDate date = Instant.ofEpochMilli(timestamp).atZone(ZoneId.systemDefault()).toLocalDate();
+        return String.format("%02d", date.getMonthValue()) + date.getYear();
+    }
+
+    /**
+     * Offset dei record NEW di un utente in un mese, in ordine di inserimento
+     * (compresi gli ordini registrati dopo l'ultimo aggiornamento).
+     * Le posizioni non cambiano nel tempo, quindi from può fare da cursore di paginazione
+     * @param from posizione del primo offset nell'elenco dell'utente
+     * @param max numero massimo di offset restituiti
+     */
+    public long[] lookup(String username, String month, int from, int max) throws IOException {
+        lock.lock();
+        try {
+            catchUp();
+            Offsets offsets = entries.get(key(username, month));
+            if (offsets == null || from >= offsets.size) return new long[0];
+            return Arrays.copyOfRange(offsets.values, from, from + Math.min(max, offsets.size - from));
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Indicizza i record nuovi e salva l'indice se è avanzato dall'ultimo salvataggio.
+     * Sotto il lock dell'indice si copia solo il contenuto; la scrittura del file avviene dopo,
+     * così le lookup concorrenti non attendono l'I/O
+     */
+    public void refresh() throws IOException {
+        saveLock.lock();
+        try {
+            byte[] bytes;
+            long position;
+            lock.lock();
+            try {
+                catchUp();
+                if (covered == saved) return;
+                bytes = serialize();
+                position = covered;
+            } finally {
+                lock.unlock();
+            }
+            store(bytes);
+            saved = position;
+        } finally {
+            saveLock.unlock();
+        }
+    }
+
+    // Legge dal journal solo i record successivi a covered
+    private void catchUp() throws IOException {
+        long end = journal.position();
+        if (covered > end) {
+            truncate(end); // Journal più corto dell'indice: gli offset oltre la fine non sono più record NEW
+        }
+        covered = journal.scan(covered, entry -> {
+            if (entry.getType() != OrderJournal.NEW || entry.getOrder().getUserId() == null) return;
+            entries.computeIfAbsent(key(entry.getOrder().getUserId(), month(entry.getTimestamp())), k -> new Offsets())
+                    .add(entry.getOffset());
+        });
+    }
+
+    // Toglie gli offset da end in poi (ogni elenco è in ordine di journal)
+    private void truncate(long end) {
+        entries.values().removeIf(offsets -> {
+            while (offsets.size > 0 && offsets.values[offsets.size - 1] >= end) {
+                offsets.size--;
+            }
+            return offsets.size == 0;
+        });
+        covered = end;
+    }
+
+    // Il mese ha sempre 6 cifre: la chiave non è ambigua qualunque sia lo username
+    private static String key(String username, String month) {
+        return username + '|' + month;
+    }
+
+    // Contenuto del file dell'indice, con il CRC in coda (sotto lock)
+    private byte[] serialize() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64 + entries.size() * 64);
+        DataOutputStream data = new DataOutputStream(bytes);
+        data.writeInt(MAGIC);
+        data.writeInt(VERSION);
+        data.writeLong(covered);
+        data.writeInt(entries.size());
+        for (Map.Entry<String, Offsets> entry : entries.entrySet()) {
+            byte[] key = entry.getKey().getBytes(StandardCharsets.UTF_8);
+            Offsets offsets = entry.getValue();
+            data.writeShort(key.length);
+            data.write(key);
+            data.writeInt(offsets.size);
+            for (int i = 0; i < offsets.size; i++) {
+                data.writeLong(offsets.values[i]);
+            }
+        }
+        CRC32 crc = new CRC32();
+        crc.update(bytes.toByteArray());
+        data.writeLong(crc.getValue());
+        data.flush();
+        return bytes.toByteArray();
+    }
+
+    /* Scrive l'indice in un file temporaneo e lo rende visibile con una move atomica */
+    private void store(byte[] bytes) throws IOException {
+        Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+        Files.write(temp, bytes);
+        Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private void read() throws IOException {
+        byte[] bytes = Files.readAllBytes(path);
+        if (bytes.length < 28) throw new IOException("file troppo corto");
+        CRC32 crc = new CRC32();
+        crc.update(bytes, 0, bytes.length - 8);
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        if (buffer.getLong(bytes.length - 8) != crc.getValue()) throw new IOException("CRC errato");
+        if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION) throw new IOException("formato sconosciuto");
+
+        try {
+            long offset = buffer.getLong();
+            int count = buffer.getInt();
+            for (int i = 0; i < count; i++) {
+                byte[] key = new byte[buffer.getShort() & 0xFFFF];
+                buffer.get(key);
+                Offsets offsets = new Offsets();
+                int size = buffer.getInt();
+                offsets.values = new long[Math.max(4, size)];
+                for (int j = 0; j < size; j++) {
+                    offsets.values[j] = buffer.getLong();
+                }
+                offsets.size = size;
+                entries.put(new String(key, StandardCharsets.UTF_8), offsets);
+            }
+            covered = offset;
+        } catch (BufferUnderflowException e) {
+            throw new IOException("indice incompleto");
+        }
+    }
+}
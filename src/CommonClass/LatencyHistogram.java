@@ -0,0 +1,117 @@
+package CommonClass;
+
+import java.util.Arrays;
+
+/*
+ * Istogramma di latenze a bucket log-lineari: 32 sotto-bucket per ogni potenza di due,
+ * quindi errore relativo sotto il 3% su tutto l'intervallo con memoria fissa (circa 15 KB).
+ * Registrare un valore costa un indice e un incremento; non è thread safe (un istogramma per thread,
+ * uniti alla fine con add)
+ */
+public class LatencyHistogram {
+    private static final int SUB_BITS = 5;
+    private static final int SUB = 1 << SUB_BITS;
+    static final int BUCKETS = (64 - SUB_BITS) * SUB;
+
+    private final long[] counts = new long[BUCKETS];
+    private long count;
+    private long sum;
+    private long min = Long.MAX_VALUE;
+    private long max;
+
+    /* Registra un valore (ad esempio nanosecondi); i negativi valgono 0 */
+    public void record(long value) {
+        if (value < 0) value = 0;
+        counts[index(value)]++;
+        count++;
+        sum += value;
+        if (value < min) min = value;
+        if (value > max) max = value;
+    }
+
+    /* Aggiunge i valori di un altro istogramma */
+    public void add(LatencyHistogram other) {
+        for (int i = 0; i < BUCKETS; i++) {
+            counts[i] += other.counts[i];
+        }
+        count += other.count;
+        sum += other.sum;
+        min = Math.min(min, other.min);
+        max = Math.max(max, other.max);
+    }
+
+    /* Aggiunge i conteggi per bucket raccolti da un MetricTimer */
+    void addBuckets(long[] buckets, long valuesSum, long valuesMax) {
+        for (int i = 0; i < BUCKETS; i++) {
+            if (buckets[i] == 0) continue;
+            if (count == 0 || i < index(min)) min = i == 0 ? 0 : upperBound(i - 1) + 1;
+            counts[i] += buckets[i];
+            count += buckets[i];
+        }
+        sum += valuesSum;
+        max = Math.max(max, valuesMax);
+    }
+
+    public void reset() {
+        Arrays.fill(counts, 0);
+        count = 0;
+        sum = 0;
+        min = Long.MAX_VALUE;
+        max = 0;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public long getMin() {
+        return count == 0 ? 0 : min;
+    }
+
+    public long getMax() {
+        return max;
+    }
+
+    public double getMean() {
+        return count == 0 ? 0 : (double) sum / count;
+    }
+
+    /**
+     * Valore al percentile indicato (limite superiore del bucket, mai oltre il massimo registrato)
+     * @param percentile tra 0 e 100, ad esempio 99.9
+     */
+    public long percentile(double percentile) {
+        if (count == 0) return 0;
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100.0 * count));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return Math.min(upperBound(i), max);
+            }
+        }
+        return max;
+    }
+
+    /* Riepilogo con i percentili principali, valori divisi per unit (ad esempio 1000 per ns -> us) */
+    public String summary(double unit, String unitName) {
+        return String.format("n=%d min=%.1f p50=%.1f p90=%.1f p99=%.1f p99.9=%.1f max=%.1f media=%.1f %s",
+                count, getMin() / unit, percentile(50) / unit, percentile(90) / unit, percentile(99) / unit,
+                percentile(99.9) / unit, max / unit, getMean() / unit, unitName);
+    }
+
+    static int index(long value) {
+        if (value < SUB) return (int) value;
+        int msb = 63 - Long.numberOfLeadingZeros(value);
+        int shift = msb - SUB_BITS;
+        return ((shift + 1) << SUB_BITS) + (int) ((value >>> shift) & (SUB - 1));
+    }
+
+    // Valore più alto che finisce nel bucket
+    private static long upperBound(int index) {
+        if (index < SUB) return index;
+        int shift = (index >>> SUB_BITS) - 1;
+        long base = (long) (SUB + (index & (SUB - 1))) << shift;
+        return base + (1L << shift) - 1;
+    }
+}
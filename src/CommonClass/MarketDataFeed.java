@@ -0,0 +1,240 @@
+package CommonClass;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.NetworkInterface;
+import java.net.StandardProtocolFamily;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+ * Feed di market data su UDP multicast: variazioni dei livelli del book e trade, più snapshot
+ * periodici dell'intera profondità per chi si collega in ritardo o perde pacchetti.
+ * I pacchetti sono costruiti sul thread che modifica il book e inviati da un thread dedicato,
+ * quindi il costo per il server non dipende dal numero di ascoltatori.
+ *
+ * Pacchetto: [tipo u8][sequenza i64][timestamp i64][messaggi u16], poi per gli snapshot [parte u16][parti u16].
+ * I pacchetti INCREMENTAL hanno sequenze consecutive a partire da 1: un buco indica una perdita.
+ * Uno SNAPSHOT riporta la sequenza dell'ultimo incrementale che contiene; chi deve risincronizzarsi
+ * applica lo snapshot completo e scarta gli incrementali con sequenza minore o uguale.
+ * Messaggi:
+ *   LEVEL_ADD / LEVEL_CHANGE / LEVEL_DELETE: [lato u8][prezzo i32][quantità totale i64][ordini i32]
+ *   TRADE: [prezzo i32][quantità i32][orderId bid i32][orderId ask i32]
+ */
+public class MarketDataFeed {
+    // Tipi di pacchetto
+    public static final byte INCREMENTAL = 1;
+    public static final byte SNAPSHOT = 2;
+
+    // Tipi di messaggio
+    public static final byte LEVEL_ADD = 1;
+    public static final byte LEVEL_CHANGE = 2;
+    public static final byte LEVEL_DELETE = 3;
+    public static final byte TRADE = 4;
+
+    public static final byte BID = 0;
+    public static final byte ASK = 1;
+
+    private static final int MAX_PACKET = 1400;    // Sotto la MTU tipica, niente frammentazione IP
+    private static final int HEADER = 19;
+    private static final int SNAPSHOT_HEADER = HEADER + 4;
+    private static final int LEVEL_SIZE = 18;
+    private static final int TRADE_SIZE = 17;
+    private static final int QUEUE_CAPACITY = 16 * 1024;
+
+    private final InetSocketAddress group;
+    private final String interfaceName;
+    private final int ttl;
+    private DatagramChannel channel;
+    private final BlockingQueue<ByteBuffer> queue = new LinkedBlockingQueue<>(QUEUE_CAPACITY);
+    private final AtomicLong dropped = new AtomicLong();
+    private final MetricTimer sendTimer = Metrics.timer("udp.marketdata.send");
+    private volatile boolean running;
+
+    // Stato del costruttore di pacchetti: usato solo con accesso esclusivo al book
+    private ByteBuffer packet;
+    private int messages;
+    private long sequence;  // Ultima sequenza incrementale assegnata
+    private final Set<Integer> bidLevels = new HashSet<>(); // Livelli già pubblicati
+    private final Set<Integer> askLevels = new HashSet<>();
+
+    /**
+     * @param group indirizzo del gruppo multicast
+     * @param interfaceName interfaccia di uscita (ad esempio "lo" per i test in locale), null per quella di sistema
+     */
+    public MarketDataFeed(String group, int port, String interfaceName, int ttl) throws IOException {
+        this.group = new InetSocketAddress(InetAddress.getByName(group), port);
+        this.interfaceName = interfaceName;
+        this.ttl = ttl;
+        if (!this.group.getAddress().isMulticastAddress()) {
+            throw new IOException("Indirizzo non multicast: " + group);
+        }
+    }
+
+    /* Apre il canale e avvia il thread di invio */
+    public void start() throws IOException {
+        channel = DatagramChannel.open(StandardProtocolFamily.INET);
+        channel.setOption(StandardSocketOptions.IP_MULTICAST_TTL, ttl);
+        channel.setOption(StandardSocketOptions.IP_MULTICAST_LOOP, true);
+        if (interfaceName != null && !interfaceName.isEmpty()) {
+            NetworkInterface networkInterface = NetworkInterface.getByName(interfaceName);
+            if (networkInterface == null) {
+                throw new IOException("Interfaccia di rete inesistente: " + interfaceName);
+            }
+            channel.setOption(StandardSocketOptions.IP_MULTICAST_IF, networkInterface);
+        }
+        running = true;
+
+        Thread sender = new Thread(this::sendLoop, "market-data");
+        sender.setDaemon(true);
+        sender.start();
+        System.out.println("Market data in multicast su " + group.getAddress().getHostAddress() + ":" + group.getPort());
+    }
+
+    public void stop() {
+        running = false;
+        try {
+            channel.close();
+        } catch (IOException ignored) {
+        }
+    }
+
+    /* Pacchetti scartati per coda di invio piena */
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    /* Trade eseguito: va nel pacchetto incrementale in costruzione */
+    void trade(int price, int size, int bidOrderId, int askOrderId) {
+        ensure(TRADE_SIZE);
+        packet.put(TRADE).putInt(price).putInt(size).putInt(bidOrderId).putInt(askOrderId);
+        messages++;
+    }
+
+    /**
+     * Stato attuale di un livello modificato: add, change o delete a seconda
+     * di cosa è già stato pubblicato
+     * @param level il livello, null se non esiste più
+     */
+    void level(byte side, int price, PriceLevel level) {
+        Set<Integer> published = side == BID ? bidLevels : askLevels;
+        byte action;
+        if (level == null) {
+            if (!published.remove(price)) return; // Nato e sparito tra due pubblicazioni
+            action = LEVEL_DELETE;
+        } else {
+            action = published.add(price) ? LEVEL_ADD : LEVEL_CHANGE;
+        }
+        ensure(LEVEL_SIZE);
+        putLevel(packet, action, side, price, level);
+        messages++;
+    }
+
+    /* Chiude il pacchetto incrementale in costruzione e lo accoda per l'invio */
+    void flush() {
+        if (packet == null || messages == 0) return;
+        packet.putShort(17, (short) messages);
+        enqueue(packet);
+        packet = null;
+        messages = 0;
+    }
+
+    /*
+     * Snapshot dell'intera profondità, diviso in più pacchetti se necessario. I livelli dello snapshot diventano
+     * quelli pubblicati: chi lo applica riceverà LEVEL_CHANGE e LEVEL_DELETE anche per loro
+     */
+    void snapshot(OrderBook bids, OrderBook asks) {
+        flush();
+        bidLevels.clear();
+        askLevels.clear();
+        int perPacket = (MAX_PACKET - SNAPSHOT_HEADER) / LEVEL_SIZE;
+        int total = bids.levelCount() + asks.levelCount();
+        int parts = Math.max(1, (total + perPacket - 1) / perPacket);
+        long timestamp = System.currentTimeMillis();
+
+        ByteBuffer current = null;
+        int count = 0;
+        int part = 0;
+        for (int s = 0; s < 2; s++) {
+            byte side = s == 0 ? BID : ASK;
+            for (PriceLevel level : (s == 0 ? bids : asks).levels()) {
+                if (current == null) {
+                    current = snapshotPacket(timestamp, part++, parts);
+                }
+                putLevel(current, LEVEL_ADD, side, level.getPrice(), level);
+                (s == 0 ? bidLevels : askLevels).add(level.getPrice());
+                if (++count == perPacket) {
+                    current.putShort(17, (short) count);
+                    enqueue(current);
+                    current = null;
+                    count = 0;
+                }
+            }
+        }
+        if (current != null || part == 0) {
+            if (current == null) current = snapshotPacket(timestamp, part, parts); // Book vuoto
+            current.putShort(17, (short) count);
+            enqueue(current);
+        }
+    }
+
+    // Garantisce spazio per un messaggio, chiudendo il pacchetto corrente se pieno
+    private void ensure(int size) {
+        if (packet != null && packet.remaining() < size) {
+            flush();
+        }
+        if (packet == null) {
+            packet = ByteBuffer.allocate(MAX_PACKET);
+            packet.put(INCREMENTAL).putLong(++sequence).putLong(System.currentTimeMillis()).putShort((short) 0);
+        }
+    }
+
+    private ByteBuffer snapshotPacket(long timestamp, int part, int parts) {
+        ByteBuffer buffer = ByteBuffer.allocate(MAX_PACKET);
+        buffer.put(SNAPSHOT).putLong(sequence).putLong(timestamp).putShort((short) 0);
+        buffer.putShort((short) part).putShort((short) parts);
+        return buffer;
+    }
+
+    private static void putLevel(ByteBuffer buffer, byte action, byte side, int price, PriceLevel level) {
+        buffer.put(action).put(side).putInt(price);
+        if (level == null) {
+            buffer.putLong(0).putInt(0);
+        } else {
+            buffer.putLong(level.getTotalSize()).putInt(level.getOrderCount());
+        }
+    }
+
+    private void enqueue(ByteBuffer buffer) {
+        buffer.flip();
+        if (!queue.offer(buffer)) {
+            dropped.incrementAndGet();
+        }
+    }
+
+    private void sendLoop() {
+        while (running) {
+            ByteBuffer buffer;
+            try {
+                buffer = queue.take();
+            } catch (InterruptedException e) {
+                return;
+            }
+            long sendStart = sendTimer.start();
+            try {
+                channel.send(buffer, group);
+                sendTimer.stop(sendStart);
+            } catch (IOException e) {
+                if (!running) return;
+                System.err.println("Errore nell'invio del market data: " + e.getMessage());
+            }
+        }
+    }
+}
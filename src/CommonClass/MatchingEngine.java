@@ -0,0 +1,191 @@
+package CommonClass;
+
+import Server.Order;
+
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Function;
+import java.util.concurrent.locks.LockSupport;
+
+/*
+ * Motore di matching a singolo scrittore: i thread dei client pubblicano comandi nel ring buffer
+ * e un unico thread dedicato applica add/match/stop su CompraVendita, senza lock sul percorso critico.
+ * Se il journal va forzato a ogni gruppo (group commit), i risultati dei comandi consumati di seguito
+ * vengono completati solo dopo un'unica force, quando il ring si svuota o il gruppo arriva a MAX_GROUP
+ */
+public class MatchingEngine implements Runnable {
+
+    // Tipi di comando
+    static final int ADD = 1;
+    static final int TASK = 2; // Operazione generica con accesso esclusivo al book (snapshot, viste)
+    private static final int MAX_GROUP = 256; // Comandi massimi in attesa della stessa force del journal
+
+    // Slot preallocato del ring buffer
+    static final class Command {
+        int type;
+        Order order;
+        Function<CompraVendita, ?> task;
+        CompletableFuture<?> result;
+
+        void clear() {
+            type = 0;
+            order = null;
+            task = null;
+            result = null;
+        }
+    }
+
+    private final CompraVendita compraVendita;
+    private final RingBuffer<Command> ring;
+    private volatile boolean running;
+    private Thread thread;
+
+    // Comandi eseguiti in attesa della force del journal: future ed esito (valore o eccezione)
+    private final CompletableFuture<?>[] groupResults = new CompletableFuture<?>[MAX_GROUP];
+    private final Object[] groupOutcomes = new Object[MAX_GROUP];
+    private final boolean[] groupFailed = new boolean[MAX_GROUP];
+    private int groupSize;
+
+    public MatchingEngine(CompraVendita compraVendita, int capacity) {
+        this.compraVendita = compraVendita;
+        this.ring = new RingBuffer<>(capacity, Command::new);
+    }
+
+    public void start() {
+        running = true;
+        thread = new Thread(this, "matching-engine");
+        thread.setDaemon(true);
+        thread.start();
+        System.out.println("Motore di matching avviato (ring da " + ring.capacity() + " slot)");
+    }
+
+    /* Comandi pubblicati e non ancora eseguiti */
+    public long backlog() {
+        return ring.backlog();
+    }
+
+    public void stop() {
+        running = false;
+        if (thread != null) {
+            LockSupport.unpark(thread);
+        }
+    }
+
+    /**
+     * Pubblica un nuovo ordine: il risultato (ID da notificare) arriva in modo asincrono
+     * quando il motore ha terminato add, stop e matching
+     */
+    public CompletableFuture<Set<Integer>> submit(Order order) {
+        CompletableFuture<Set<Integer>> result = new CompletableFuture<>();
+        long sequence = ring.claim();
+        Command command = ring.get(sequence);
+        command.type = ADD;
+        command.order = order;
+        command.result = result;
+        ring.publish(sequence);
+        return result;
+    }
+
+    /* Esegue un'operazione sul thread del motore, in ordine rispetto agli altri comandi */
+    public <T> CompletableFuture<T> submitTask(Function<CompraVendita, T> task) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        long sequence = ring.claim();
+        Command command = ring.get(sequence);
+        command.type = TASK;
+        command.task = task;
+        command.result = result;
+        ring.publish(sequence);
+        return result;
+    }
+
+    /* Ciclo del thread del motore: consuma i comandi in ordine di sequenza */
+    @Override
+    public void run() {
+        long next = 0;
+        int idle = 0;
+        while (running) {
+            if (!ring.isPublished(next)) {
+                if (groupSize > 0) {
+                    completeGroup(); // Fine del gruppo: il ring è vuoto
+                    continue;
+                }
+                idle = backoff(idle);
+                continue;
+            }
+            idle = 0;
+            Command command = ring.get(next);
+            CompletableFuture<?> result = command.result;
+            Object outcome;
+            boolean failed = false;
+            try {
+                switch (command.type) {
+                    case ADD:
+                        outcome = compraVendita.addOrder(command.order);
+                        break;
+                    case TASK:
+                        outcome = command.task.apply(compraVendita);
+                        break;
+                    default:
+                        outcome = new IllegalStateException("Comando sconosciuto: " + command.type);
+                        failed = true;
+                }
+            } catch (Exception e) {
+                outcome = e;
+                failed = true;
+            }
+            command.clear();
+            ring.release(next);
+            next++;
+
+            if (compraVendita.syncsEachGroup()) {
+                groupResults[groupSize] = result;
+                groupOutcomes[groupSize] = outcome;
+                groupFailed[groupSize] = failed;
+                if (++groupSize == MAX_GROUP) completeGroup();
+            } else {
+                complete(result, outcome, failed);
+            }
+        }
+    }
+
+    // Forza il journal una volta per tutto il gruppo, poi risponde ai comandi in ordine
+    private void completeGroup() {
+        Exception syncError = null;
+        try {
+            compraVendita.syncJournal();
+        } catch (Exception e) {
+            syncError = e;
+        }
+        for (int i = 0; i < groupSize; i++) {
+            if (syncError != null && !groupFailed[i]) {
+                complete(groupResults[i], syncError, true);
+            } else {
+                complete(groupResults[i], groupOutcomes[i], groupFailed[i]);
+            }
+            groupResults[i] = null;
+            groupOutcomes[i] = null;
+        }
+        groupSize = 0;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static void complete(CompletableFuture<?> result, Object outcome, boolean failed) {
+        if (failed) {
+            result.completeExceptionally((Throwable) outcome);
+        } else {
+            ((CompletableFuture<Object>) result).complete(outcome);
+        }
+    }
+
+    // Attesa progressiva quando il ring è vuoto: spin, poi yield, poi park breve
+    private int backoff(int idle) {
+        if (idle < 100) {
+            Thread.onSpinWait();
+        } else if (idle < 200) {
+            Thread.yield();
+        } else {
+            LockSupport.parkNanos(50_000);
+        }
+        return idle + 1;
+    }
+}
@@ -0,0 +1,63 @@
+package CommonClass;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/*
+ * Istogramma di latenze condiviso tra thread, per le metriche del server: stessi bucket di LatencyHistogram,
+ * divisi in strisce scelte in base al thread per ridurre la contesa. Registrare costa un incremento atomico
+ * e un LongAdder; la lettura unisce le strisce in un LatencyHistogram (valori in nanosecondi)
+ */
+public class MetricTimer {
+    private static final int STRIPES = Math.min(8, Integer.highestOneBit(Runtime.getRuntime().availableProcessors() * 2 - 1));
+
+    private final AtomicLongArray[] stripes = new AtomicLongArray[STRIPES];
+    private final LongAdder sum = new LongAdder();
+    private final AtomicLong max = new AtomicLong();
+
+    MetricTimer() {
+        for (int i = 0; i < STRIPES; i++) {
+            stripes[i] = new AtomicLongArray(LatencyHistogram.BUCKETS);
+        }
+    }
+
+    /* Inizio di un'operazione da misurare */
+    public long start() {
+        return System.nanoTime();
+    }
+
+    /* Registra il tempo trascorso da start */
+    public void stop(long start) {
+        record(System.nanoTime() - start);
+    }
+
+    public void record(long nanos) {
+        if (nanos < 0) nanos = 0;
+        stripes[stripe()].incrementAndGet(LatencyHistogram.index(nanos));
+        sum.add(nanos);
+        long current;
+        while (nanos > (current = max.get()) && !max.compareAndSet(current, nanos)) {
+            // Un altro thread ha aggiornato il massimo: si riprova
+        }
+    }
+
+    // Striscia del thread corrente: l'hash d'identità del Thread è fisso per tutta la sua vita e non passa da metodi deprecati
+    private static int stripe() {
+        int h = Thread.currentThread().hashCode();
+        return (h ^ (h >>> 16)) & (STRIPES - 1);
+    }
+
+    /* Copia dei valori registrati finora (le registrazioni concorrenti possono mancare o comparire in parte) */
+    public LatencyHistogram snapshot() {
+        long[] buckets = new long[LatencyHistogram.BUCKETS];
+        for (AtomicLongArray stripe : stripes) {
+            for (int i = 0; i < buckets.length; i++) {
+                buckets[i] += stripe.get(i);
+            }
+        }
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.addBuckets(buckets, sum.sum(), max.get());
+        return histogram;
+    }
+}
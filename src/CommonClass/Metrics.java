@@ -0,0 +1,172 @@
+package CommonClass;
+
+import com.sun.net.httpserver.HttpServer;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/*
+ * Registro delle metriche del server: contatori (LongAdder), timer (MetricTimer) e gauge letti al momento.
+ * I componenti tengono il riferimento restituito da counter/timer, quindi registrare non passa dalla mappa.
+ * Esposte con l'operazione stats, via JMX e, se configurato, in formato testo Prometheus su HTTP
+ */
+public class Metrics {
+    private static final Map<String, LongAdder> counters = new ConcurrentHashMap<>();
+    private static final Map<String, MetricTimer> timers = new ConcurrentHashMap<>();
+    private static final Map<String, LongSupplier> gauges = new ConcurrentHashMap<>();
+    private static HttpServer httpServer;
+
+    /* Contatore con questo nome, creato al primo uso */
+    public static LongAdder counter(String name) {
+        return counters.computeIfAbsent(name, k -> new LongAdder());
+    }
+
+    /* Timer con questo nome, creato al primo uso */
+    public static MetricTimer timer(String name) {
+        return timers.computeIfAbsent(name, k -> new MetricTimer());
+    }
+
+    /* Valore letto da supplier a ogni esportazione; sostituisce un gauge con lo stesso nome */
+    public static void gauge(String name, LongSupplier supplier) {
+        gauges.put(name, supplier);
+    }
+
+    /* Risposta dell'operazione stats: latenze in microsecondi */
+    public static String toJson() {
+        StringBuilder sb = new StringBuilder("{\"response\": 100, \"counters\": {");
+        appendValues(sb, counterValues());
+        sb.append("}, \"gauges\": {");
+        appendValues(sb, gaugeValues());
+        sb.append("}, \"timers\": {");
+        boolean first = true;
+        for (Map.Entry<String, MetricTimer> timer : new TreeMap<>(timers).entrySet()) {
+            LatencyHistogram h = timer.getValue().snapshot();
+            if (!first) sb.append(", ");
+            first = false;
+            sb.append('"').append(timer.getKey()).append("\": ")
+                    .append(String.format(Locale.ROOT,
+                            "{\"count\": %d, \"mean\": %.1f, \"p50\": %.1f, \"p99\": %.1f, \"p999\": %.1f, \"max\": %.1f}",
+                            h.getCount(), h.getMean() / 1000.0, h.percentile(50) / 1000.0, h.percentile(99) / 1000.0,
+                            h.percentile(99.9) / 1000.0, h.getMax() / 1000.0));
+        }
+        return sb.append("}, \"unit\": \"us\"}").toString();
+    }
+
+    /* Esposizione in formato testo Prometheus: contatori, gauge e timer come summary in secondi */
+    public static String toPrometheus() {
+        StringBuilder sb = new StringBuilder();
+        for (Map.Entry<String, Long> counter : counterValues().entrySet()) {
+            String name = "cross_" + sanitize(counter.getKey()) + "_total";
+            sb.append("# TYPE ").append(name).append(" counter\n").append(name).append(' ').append(counter.getValue()).append('\n');
+        }
+        for (Map.Entry<String, Long> gauge : gaugeValues().entrySet()) {
+            String name = "cross_" + sanitize(gauge.getKey());
+            sb.append("# TYPE ").append(name).append(" gauge\n").append(name).append(' ').append(gauge.getValue()).append('\n');
+        }
+        for (Map.Entry<String, MetricTimer> timer : new TreeMap<>(timers).entrySet()) {
+            LatencyHistogram h = timer.getValue().snapshot();
+            String name = "cross_" + sanitize(timer.getKey()) + "_seconds";
+            sb.append("# TYPE ").append(name).append(" summary\n");
+            for (double quantile : new double[]{0.5, 0.9, 0.99, 0.999}) {
+                sb.append(name).append("{quantile=\"").append(quantile).append("\"} ")
+                        .append(h.percentile(quantile * 100) / 1e9).append('\n');
+            }
+            sb.append(name).append("_sum ").append(h.getMean() * h.getCount() / 1e9).append('\n');
+            sb.append(name).append("_count ").append(h.getCount()).append('\n');
+        }
+        return sb.toString();
+    }
+
+    /* Registra il bean JMX CROSS:type=Metrics sul server MBean della piattaforma */
+    public static void registerMBean() {
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(new MetricsBean(), new ObjectName("CROSS:type=Metrics"));
+        } catch (JMException e) {
+            System.err.println("Registrazione JMX delle metriche non riuscita: " + e.getMessage());
+        }
+    }
+
+    /*
+     * Avvia l'endpoint HTTP /metrics (formato Prometheus) sull'indirizzo e sulla porta indicati.
+     * L'endpoint non è autenticato: esporlo oltre il loopback solo dietro una rete fidata
+     */
+    public static synchronized void startHttpServer(String bindAddress, int port) throws IOException {
+        if (httpServer != null) return;
+        InetSocketAddress address = new InetSocketAddress(bindAddress, port);
+        httpServer = HttpServer.create(address, 0);
+        httpServer.createContext("/metrics", exchange -> {
+            byte[] body = toPrometheus().getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        });
+        httpServer.start(); // Esecutore predefinito: un solo thread, le richieste di scrape sono rare
+        System.out.println("Metriche Prometheus su http://" + address.getHostString() + ":" + port + "/metrics");
+    }
+
+    private static Map<String, Long> counterValues() {
+        Map<String, Long> values = new TreeMap<>();
+        counters.forEach((name, counter) -> values.put(name, counter.sum()));
+        return values;
+    }
+
+    private static Map<String, Long> gaugeValues() {
+        Map<String, Long> values = new TreeMap<>();
+        gauges.forEach((name, gauge) -> values.put(name, gauge.getAsLong()));
+        return values;
+    }
+
+    private static void appendValues(StringBuilder sb, Map<String, Long> values) {
+        boolean first = true;
+        for (Map.Entry<String, Long> value : values.entrySet()) {
+            if (!first) sb.append(", ");
+            first = false;
+            sb.append('"').append(value.getKey()).append("\": ").append(value.getValue());
+        }
+    }
+
+    // Nomi Prometheus: solo lettere, cifre e underscore
+    private static String sanitize(String name) {
+        return name.replaceAll("[^a-zA-Z0-9_]", "_");
+    }
+
+    private static final class MetricsBean implements MetricsMXBean {
+        @Override
+        public Map<String, Long> getCounters() {
+            return counterValues();
+        }
+
+        @Override
+        public Map<String, Long> getGauges() {
+            return gaugeValues();
+        }
+
+        @Override
+        public Map<String, Double> getLatencies() {
+            Map<String, Double> values = new TreeMap<>();
+            timers.forEach((name, timer) -> {
+                LatencyHistogram h = timer.snapshot();
+                values.put(name + ".count", (double) h.getCount());
+                values.put(name + ".mean", h.getMean() / 1000.0);
+                values.put(name + ".p50", h.percentile(50) / 1000.0);
+                values.put(name + ".p99", h.percentile(99) / 1000.0);
+                values.put(name + ".p999", h.percentile(99.9) / 1000.0);
+                values.put(name + ".max", h.getMax() / 1000.0);
+            });
+            return values;
+        }
+    }
+}
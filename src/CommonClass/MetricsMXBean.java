@@ -0,0 +1,14 @@
+package CommonClass;
+
+import java.util.Map;
+
+/* Metriche del server esposte via JMX (CROSS:type=Metrics) */
+public interface MetricsMXBean {
+
+    Map<String, Long> getCounters();
+
+    Map<String, Long> getGauges();
+
+    /* Per ogni timer: <nome>.count e <nome>.mean/.p50/.p99/.p999/.max in microsecondi */
+    Map<String, Double> getLatencies();
+}
@@ -0,0 +1,175 @@
+package CommonClass;
+
+import Server.Order;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.function.IntConsumer;
+import java.util.function.ToIntFunction;
+
+/*
+ * Un lato del book (bid o ask) organizzato per livelli di prezzo.
+ * Miglior prezzo in O(1), inserimento in O(log livelli), cancellazione in O(1) tramite orderId.
+ * Con una chiave diversa dal prezzo (ad esempio lo stopPrice) fa da indice ordinato per gli stop order
+ */
+public class OrderBook {
+    private final Comparator<Integer> priority;
+    private final ToIntFunction<Order> key; // Prezzo che determina il livello dell'ordine
+    private final TreeMap<Integer, PriceLevel> levels;
+    private final Map<Integer, PriceLevel.Node> index = new HashMap<>();
+    private PriceLevel best; // Cache del miglior livello
+    private Set<Integer> changed; // Prezzi dei livelli modificati dall'ultima lettura, null se non tracciati
+    private long version;         // Incrementata a ogni modifica dei livelli
+
+    /**
+     * @param bid true per il lato bid (prezzi decrescenti), false per il lato ask (prezzi crescenti)
+     */
+    public OrderBook(boolean bid) {
+        this(bid, Order::getPrice);
+    }
+
+    /**
+     * @param descending true se il livello migliore è quello con la chiave più alta
+     * @param key prezzo usato per raggruppare e ordinare gli ordini
+     */
+    public OrderBook(boolean descending, ToIntFunction<Order> key) {
+        this.priority = descending ? Comparator.reverseOrder() : Comparator.naturalOrder();
+        this.levels = new TreeMap<>(priority);
+        this.key = key;
+    }
+
+    /* Inserisce l'ordine in coda al suo livello di prezzo */
+    public void add(Order order) {
+        int price = key.applyAsInt(order);
+        PriceLevel level = levels.get(price);
+        if (level == null) {
+            level = new PriceLevel(price);
+            levels.put(price, level);
+            if (best == null || priority.compare(price, best.getPrice()) < 0) {
+                best = level;
+            }
+        }
+        index.put(order.getOrderId(), level.append(order));
+        mark(price);
+    }
+
+    /* Rimuove un ordine dal book tramite il suo ID */
+    public Order remove(int orderId) {
+        PriceLevel.Node node = index.remove(orderId);
+        if (node == null) return null;
+        detach(node);
+        return node.order;
+    }
+
+    /* Esegue una quantità dell'ordine in testa al miglior livello, rimuovendolo se completato */
+    public void fill(Order order, int quantity) {
+        PriceLevel.Node node = best.first();
+        if (node == null || node.order != order) {
+            node = index.get(order.getOrderId());
+        }
+        node.level.reduce(node, quantity);
+        mark(node.level.getPrice());
+        if (order.getSize() <= 0) {
+            if (index.get(order.getOrderId()) == node) {
+                index.remove(order.getOrderId());
+            }
+            detach(node);
+        }
+    }
+
+    /* Riduce la quantità di un ordine lasciandolo nella sua posizione nella coda del livello */
+    public boolean reduce(int orderId, int newSize) {
+        PriceLevel.Node node = index.get(orderId);
+        if (node == null || newSize <= 0 || newSize >= node.order.getSize()) return false;
+        node.level.reduce(node, node.order.getSize() - newSize);
+        mark(node.level.getPrice());
+        return true;
+    }
+
+    /* Ordine con la priorità più alta (miglior prezzo, più vecchio) */
+    public Order peek() {
+        return best == null ? null : best.peek();
+    }
+
+    public boolean isEmpty() {
+        return best == null;
+    }
+
+    public PriceLevel bestLevel() {
+        return best;
+    }
+
+    public Order get(int orderId) {
+        PriceLevel.Node node = index.get(orderId);
+        return node == null ? null : node.order;
+    }
+
+    public boolean contains(int orderId) {
+        return index.containsKey(orderId);
+    }
+
+    /* Numero di ordini presenti in questo lato del book */
+    public int size() {
+        return index.size();
+    }
+
+    /* Versione del lato: cambia a ogni inserimento, esecuzione, riduzione o rimozione */
+    public long version() {
+        return version;
+    }
+
+    public int levelCount() {
+        return levels.size();
+    }
+
+    /* Livello a un prezzo, null se non ci sono ordini */
+    public PriceLevel level(int price) {
+        return levels.get(price);
+    }
+
+    /* Da qui in poi registra i prezzi dei livelli che cambiano (per il market data) */
+    public void trackChanges() {
+        changed = new LinkedHashSet<>();
+    }
+
+    /* Consegna i prezzi dei livelli cambiati dall'ultima chiamata e azzera l'elenco */
+    public void drainChanges(IntConsumer action) {
+        if (changed == null || changed.isEmpty()) return;
+        for (int price : changed) {
+            action.accept(price);
+        }
+        changed.clear();
+    }
+
+    /* Livelli in ordine di priorità (dal migliore) */
+    public Collection<PriceLevel> levels() {
+        return Collections.unmodifiableCollection(levels.values());
+    }
+
+    // Scollega il nodo e, se il livello rimane vuoto, lo elimina aggiornando il best
+    private void detach(PriceLevel.Node node) {
+        PriceLevel level = node.level;
+        level.unlink(node);
+        mark(level.getPrice());
+        if (level.isEmpty()) {
+            levels.remove(level.getPrice());
+            if (level == best) {
+                Map.Entry<Integer, PriceLevel> first = levels.firstEntry();
+                best = first == null ? null : first.getValue();
+            }
+        }
+    }
+
+    private void mark(int price) {
+        version++;
+        if (changed != null) {
+            changed.add(price);
+        }
+    }
+}
@@ -0,0 +1,442 @@
+package CommonClass;
+
+import Server.Order;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+
+/*
+ * Journal append-only degli eventi sugli ordini (nuovo, esecuzione, cancellazione, attivazione stop, modifica).
+ * Ogni record è [lunghezza][CRC32][payload] e viene scritto in coda tramite FileChannel:
+ * il costo di una scrittura non dipende dalla dimensione dello storico.
+ * Le append arrivano alla cache del sistema operativo; sono durevoli dopo force(), che CompraVendita
+ * chiama secondo la politica configurata (a ogni gruppo di comandi del motore oppure periodicamente).
+ * I lettori concorrenti (scan, read) si fermano a position(), la fine delle append concluse: un'append che
+ * fallisce viene annullata troncando il file, ma mai prima di position(), quindi un record letto resta valido
+ */
+public class OrderJournal implements AutoCloseable {
+
+    // Tipi di evento
+    public static final byte NEW = 1;
+    public static final byte FILL = 2;
+    public static final byte CANCEL = 3;
+    public static final byte TRIGGER = 4; // Stop order attivato (non più in attesa)
+    public static final byte MODIFY = 5;  // Nuova quantità e nuovo prezzo di un limit order
+
+    private static final int HEADER = 8;            // lunghezza + CRC
+    private static final int MAX_PAYLOAD = 64 * 1024;
+    private static final int NEW_SIZE = 29;         // Payload di NEW escluso lo username
+    public static final int MAX_USERNAME_BYTES = 255; // Lunghezza massima dello username in UTF-8, controllata alla registrazione
+
+    private final Path path;
+    private final FileChannel channel;
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(HEADER + MAX_PAYLOAD);
+    private final CRC32 crc = new CRC32();
+    // ReentrantLock e non synchronized: un virtual thread in attesa sulla scrittura non blocca il carrier
+    private final ReentrantLock lock = new ReentrantLock();
+    private volatile long position; // Fine delle append concluse: il journal visibile ai lettori
+    private long tail;              // Fine dei byte scritti, anche di un'append in corso (sotto lock)
+    private int recordStart;        // Inizio del record in costruzione nel buffer
+
+    public OrderJournal(String file) throws IOException {
+        this.path = Paths.get(file);
+        this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        this.position = channel.size();
+        this.tail = position;
+    }
+
+    // Evento letto dal journal
+    public static class Entry {
+        private final byte type;
+        private final long offset;
+        private final int orderId;
+        private final long timestamp;
+        private final int quantity;
+        private final int price;
+        private final Order order; // Solo per NEW
+
+        Entry(byte type, long offset, int orderId, long timestamp, int quantity, int price, Order order) {
+            this.type = type;
+            this.offset = offset;
+            this.orderId = orderId;
+            this.timestamp = timestamp;
+            this.quantity = quantity;
+            this.price = price;
+            this.order = order;
+        }
+
+        public byte getType() { return type; }
+        public long getOffset() { return offset; }
+        public int getOrderId() { return orderId; }
+        public long getTimestamp() { return timestamp; }
+        public int getQuantity() { return quantity; }
+        public int getPrice() { return price; }
+        public Order getOrder() { return order; }
+    }
+
+    /* Registra un nuovo ordine e restituisce l'offset del record */
+    public long appendNew(Order order) throws IOException {
+        lock.lock();
+        try {
+            buffer.clear();
+            putNew(order, userBytes(order));
+            long offset = write();
+            position = tail;
+            return offset;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Registra un gruppo di nuovi ordini accumulando i record nel buffer:
+     * una sola scrittura sul file (o poche, se il gruppo supera il buffer)
+     * @return l'offset del primo record
+     */
+    public long appendNew(List<Order> orders) throws IOException {
+        lock.lock();
+        try {
+            long first = tail;
+            buffer.clear();
+            try {
+                for (Order order : orders) {
+                    byte[] user = userBytes(order);
+                    if (buffer.remaining() < HEADER + NEW_SIZE + user.length) {
+                        write();
+                        buffer.clear();
+                    }
+                    putNew(order, user);
+                }
+                write();
+            } catch (IOException e) {
+                // Il gruppo non viene applicato: si tolgono anche i record delle scritture già riuscite
+                rollback(first, e);
+                throw e;
+            }
+            position = tail;
+            return first;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /* Registra un trade: le esecuzioni dei due ordini vanno in un'unica scrittura, quindi nel journal ci sono entrambe o nessuna */
+    public long appendTrade(int bidOrderId, int askOrderId, int quantity, int price) throws IOException {
+        lock.lock();
+        try {
+            buffer.clear();
+            long timestamp = System.currentTimeMillis();
+            begin(FILL, bidOrderId, timestamp);
+            buffer.putInt(quantity);
+            buffer.putInt(price);
+            seal();
+            begin(FILL, askOrderId, timestamp);
+            buffer.putInt(quantity);
+            buffer.putInt(price);
+            return commit();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /* Registra la cancellazione di un ordine */
+    public long appendCancel(int orderId) throws IOException {
+        lock.lock();
+        try {
+            buffer.clear();
+            begin(CANCEL, orderId, System.currentTimeMillis());
+            return commit();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /* Registra la modifica di quantità e prezzo di un ordine */
+    public long appendModify(int orderId, int size, int price, long timestamp) throws IOException {
+        lock.lock();
+        try {
+            buffer.clear();
+            begin(MODIFY, orderId, timestamp);
+            buffer.putInt(size);
+            buffer.putInt(price);
+            return commit();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /* Registra l'attivazione di uno stop order */
+    public long appendTrigger(int orderId) throws IOException {
+        lock.lock();
+        try {
+            buffer.clear();
+            begin(TRIGGER, orderId, System.currentTimeMillis());
+            return commit();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /* Offset di fine delle append concluse */
+    public long position() {
+        return position;
+    }
+
+    /* Forza su disco i record scritti finora */
+    public void force() throws IOException {
+        channel.force(false);
+    }
+
+    /**
+     * Legge in sola lettura i record a partire da un offset fino a position(): i record di un'append
+     * in corso, che potrebbe ancora essere annullata, non vengono letti
+     * @return l'offset successivo all'ultimo record letto
+     */
+    public long scan(long from, Consumer<Entry> consumer) throws IOException {
+        long end = position;
+        try (FileChannel reader = FileChannel.open(path, StandardOpenOption.READ)) {
+            return read(reader, from, end, consumer);
+        }
+    }
+
+    /* Legge tutti i record di un journal senza aprirlo in scrittura (ad esempio per un replay) */
+    public static long scanFile(String file, Consumer<Entry> consumer) throws IOException {
+        try (FileChannel reader = FileChannel.open(Paths.get(file), StandardOpenOption.READ)) {
+            return read(reader, 0, reader.size(), consumer);
+        }
+    }
+
+    /**
+     * Legge i record agli offset offsets[from..to), ad esempio quelli di un indice secondario
+     * @throws IOException se un offset non punta a un record valido prima di position()
+     */
+    public void read(long[] offsets, int from, int to, Consumer<Entry> consumer) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER);
+        ByteBuffer payload = ByteBuffer.allocate(MAX_PAYLOAD);
+        CRC32 check = new CRC32();
+        long size = position;
+        try (FileChannel reader = FileChannel.open(path, StandardOpenOption.READ)) {
+            for (int i = from; i < to; i++) {
+                if (readRecord(reader, offsets[i], size, header, payload, check) < 0) {
+                    throw new IOException("Record non valido all'offset " + offsets[i]);
+                }
+                consumer.accept(decode(payload, offsets[i]));
+            }
+        }
+    }
+
+    /**
+     * Ripristino all'avvio: rilegge i record e tronca l'eventuale coda scritta a metà
+     * durante un crash, così le scritture successive ripartono da un record valido
+     */
+    public long recover(long from, Consumer<Entry> consumer) throws IOException {
+        lock.lock();
+        try {
+            long end = read(channel, from, channel.size(), consumer);
+            if (end < channel.size()) {
+                System.err.println("Journal troncato a " + end + " (coda corrotta di " + (channel.size() - end) + " byte)");
+                channel.truncate(end);
+            }
+            tail = end;
+            position = end;
+            return end;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        lock.lock();
+        try {
+            channel.close();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public static boolean exists(String file) throws IOException {
+        Path p = Paths.get(file);
+        return Files.exists(p) && Files.size(p) > 0;
+    }
+
+    public static String decodeSide(byte side) {
+        return side == 0 ? "bid" : "ask";
+    }
+
+    public static String decodeOrderType(byte orderType) {
+        switch (orderType) {
+            case 1: return "market";
+            case 2: return "stop";
+            default: return "limit";
+        }
+    }
+
+    private static byte encodeSide(String side) {
+        return "bid".equals(side) ? (byte) 0 : (byte) 1;
+    }
+
+    private static byte encodeOrderType(String orderType) {
+        if ("market".equals(orderType)) return 1;
+        if ("stop".equals(orderType)) return 2;
+        return 0;
+    }
+
+    // Rifiuta gli username che non rientrano nel campo lunghezza prima di scrivere qualsiasi cosa
+    private static byte[] userBytes(Order order) throws IOException {
+        byte[] user = order.getUserId() == null ? new byte[0] : order.getUserId().getBytes(StandardCharsets.UTF_8);
+        if (user.length > MAX_USERNAME_BYTES) {
+            throw new IOException("Username di " + user.length + " byte per l'ordine " + order.getOrderId()
+                    + " (massimo " + MAX_USERNAME_BYTES + ")");
+        }
+        return user;
+    }
+
+    private void putNew(Order order, byte[] user) {
+        begin(NEW, order.getOrderId(), order.getTimestamp());
+        buffer.put(encodeSide(order.getType()));
+        buffer.put(encodeOrderType(order.getOrderType()));
+        buffer.putInt(order.getSize());
+        buffer.putInt(order.getPrice());
+        buffer.putInt(order.getStopPrice());
+        buffer.putShort((short) user.length);
+        buffer.put(user);
+        seal();
+    }
+
+    // Inizia un record nella posizione corrente del buffer, lasciando spazio per l'header
+    private void begin(byte type, int orderId, long timestamp) {
+        recordStart = buffer.position();
+        buffer.position(recordStart + HEADER);
+        buffer.put(type);
+        buffer.putInt(orderId);
+        buffer.putLong(timestamp);
+    }
+
+    // Completa header e CRC del record in costruzione
+    private void seal() {
+        int length = buffer.position() - recordStart - HEADER;
+        ByteBuffer payload = buffer.duplicate();
+        payload.position(recordStart + HEADER).limit(buffer.position());
+        crc.reset();
+        crc.update(payload);
+        buffer.putInt(recordStart, length);
+        buffer.putInt(recordStart + 4, (int) crc.getValue());
+    }
+
+    // Chiude l'ultimo record, lo scrive in coda al file e lo rende visibile ai lettori
+    private long commit() throws IOException {
+        seal();
+        long offset = write();
+        position = tail;
+        return offset;
+    }
+
+    /*
+     * Scrive in coda al file i record presenti nel buffer. Se la scrittura fallisce a metà (disco pieno, errore
+     * di I/O) il file torna all'offset iniziale: un record troncato in mezzo al journal farebbe perdere al
+     * ripristino tutti i record scritti dopo
+     */
+    private long write() throws IOException {
+        buffer.flip();
+        long offset = tail;
+        try {
+            while (buffer.hasRemaining()) {
+                tail += channel.write(buffer, tail);
+            }
+        } catch (IOException e) {
+            rollback(offset, e);
+            throw e;
+        }
+        return offset;
+    }
+
+    // Riporta la fine del journal a offset scartando quanto scritto dopo (mai prima di position)
+    private void rollback(long offset, IOException cause) {
+        tail = offset;
+        try {
+            channel.truncate(offset);
+        } catch (IOException e) {
+            // Le append successive ripartono comunque da offset e sovrascrivono la coda rimasta
+            cause.addSuppressed(e);
+        }
+    }
+
+    // Legge i record da from fino al primo incompleto o corrotto, senza andare oltre size
+    private static long read(FileChannel reader, long from, long size, Consumer<Entry> consumer) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER);
+        ByteBuffer payload = ByteBuffer.allocate(MAX_PAYLOAD);
+        CRC32 check = new CRC32();
+        long offset = from;
+
+        while (true) {
+            int length = readRecord(reader, offset, size, header, payload, check);
+            if (length < 0) break;
+            consumer.accept(decode(payload, offset));
+            offset += HEADER + length;
+        }
+        return offset;
+    }
+
+    // Legge e verifica il record a offset lasciandone il payload in payload; -1 se incompleto o corrotto
+    private static int readRecord(FileChannel reader, long offset, long size, ByteBuffer header, ByteBuffer payload, CRC32 check) throws IOException {
+        if (offset + HEADER > size) return -1;
+        header.clear();
+        if (readFully(reader, header, offset) < HEADER) return -1;
+        int length = header.getInt(0);
+        if (length <= 0 || length > MAX_PAYLOAD || offset + HEADER + length > size) return -1;
+
+        payload.clear().limit(length);
+        if (readFully(reader, payload, offset + HEADER) < length) return -1;
+        payload.flip();
+        check.reset();
+        check.update(payload.duplicate());
+        if ((int) check.getValue() != header.getInt(4)) return -1;
+        return length;
+    }
+
+    private static int readFully(FileChannel reader, ByteBuffer target, long position) throws IOException {
+        int total = 0;
+        while (target.hasRemaining()) {
+            int n = reader.read(target, position + total);
+            if (n < 0) break;
+            total += n;
+        }
+        return total;
+    }
+
+    private static Entry decode(ByteBuffer payload, long offset) {
+        byte type = payload.get();
+        int orderId = payload.getInt();
+        long timestamp = payload.getLong();
+        switch (type) {
+            case NEW: {
+                String side = decodeSide(payload.get());
+                String orderType = decodeOrderType(payload.get());
+                int size = payload.getInt();
+                int price = payload.getInt();
+                int stopPrice = payload.getInt();
+                byte[] user = new byte[payload.getShort() & 0xFFFF];
+                payload.get(user);
+                String userId = user.length == 0 ? null : new String(user, StandardCharsets.UTF_8);
+                Order order = new Order(orderId, userId, side, orderType, size, price, stopPrice, timestamp);
+                return new Entry(type, offset, orderId, timestamp, size, price, order);
+            }
+            case FILL:
+            case MODIFY:
+                return new Entry(type, offset, orderId, timestamp, payload.getInt(), payload.getInt(), null);
+            default:
+                return new Entry(type, offset, orderId, timestamp, 0, 0, null);
+        }
+    }
+}
@@ -0,0 +1,51 @@
+package CommonClass;
+
+/*
+ * Latenze per fase di un'operazione: ogni mark registra il tempo trascorso dal mark precedente
+ * nell'istogramma della fase. Usato dagli strumenti di misura (replay), non dal server in esercizio
+ */
+public class PhaseTimer {
+    private final String[] names;
+    private final LatencyHistogram[] histograms;
+
+    public PhaseTimer(String... names) {
+        this.names = names;
+        this.histograms = new LatencyHistogram[names.length];
+        for (int i = 0; i < names.length; i++) {
+            histograms[i] = new LatencyHistogram();
+        }
+    }
+
+    /* Inizio dell'operazione */
+    public long start() {
+        return System.nanoTime();
+    }
+
+    /**
+     * Chiude una fase iniziata a since
+     * @return l'istante di fine, da passare come since alla fase successiva
+     */
+    public long mark(int phase, long since) {
+        long now = System.nanoTime();
+        histograms[phase].record(now - since);
+        return now;
+    }
+
+    public int size() {
+        return names.length;
+    }
+
+    public String getName(int phase) {
+        return names[phase];
+    }
+
+    public LatencyHistogram getHistogram(int phase) {
+        return histograms[phase];
+    }
+
+    public void reset() {
+        for (LatencyHistogram histogram : histograms) {
+            histogram.reset();
+        }
+    }
+}
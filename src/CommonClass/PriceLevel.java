@@ -0,0 +1,104 @@
+package CommonClass;
+
+import Server.Order;
+
+import java.util.function.Consumer;
+
+/*
+ * Livello di prezzo del book: coda FIFO (lista doppiamente collegata) degli ordini
+ * allo stesso prezzo, con la quantità totale aggiornata ad ogni inserimento/esecuzione
+ */
+public class PriceLevel {
+    private final int price;
+    private Node head;
+    private Node tail;
+    private long totalSize;
+    private int orderCount;
+
+    PriceLevel(int price) {
+        this.price = price;
+    }
+
+    // Nodo della coda: è l'handle che permette la rimozione in O(1)
+    static final class Node {
+        final Order order;
+        final PriceLevel level;
+        Node prev;
+        Node next;
+
+        Node(Order order, PriceLevel level) {
+            this.order = order;
+            this.level = level;
+        }
+    }
+
+    /* Accoda un ordine in fondo al livello (priorità temporale) */
+    Node append(Order order) {
+        Node node = new Node(order, this);
+        if (tail == null) {
+            head = node;
+        } else {
+            tail.next = node;
+            node.prev = tail;
+        }
+        tail = node;
+        totalSize += order.getSize();
+        orderCount++;
+        return node;
+    }
+
+    /* Scollega un nodo dal livello in tempo costante */
+    void unlink(Node node) {
+        if (node.prev != null) {
+            node.prev.next = node.next;
+        } else {
+            head = node.next;
+        }
+        if (node.next != null) {
+            node.next.prev = node.prev;
+        } else {
+            tail = node.prev;
+        }
+        node.prev = null;
+        node.next = null;
+        totalSize -= node.order.getSize();
+        orderCount--;
+    }
+
+    /* Riduce la quantità residua di un ordine del livello */
+    void reduce(Node node, int quantity) {
+        node.order.setSize(node.order.getSize() - quantity);
+        totalSize -= quantity;
+    }
+
+    Node first() {
+        return head;
+    }
+
+    /* Visita gli ordini del livello in ordine di priorità temporale */
+    public void forEach(Consumer<Order> action) {
+        for (Node node = head; node != null; node = node.next) {
+            action.accept(node.order);
+        }
+    }
+
+    public Order peek() {
+        return head == null ? null : head.order;
+    }
+
+    public boolean isEmpty() {
+        return head == null;
+    }
+
+    public int getPrice() {
+        return price;
+    }
+
+    public long getTotalSize() {
+        return totalSize;
+    }
+
+    public int getOrderCount() {
+        return orderCount;
+    }
+}
@@ -0,0 +1,70 @@
+package CommonClass;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.Supplier;
+
+/*
+ * Ring buffer lock-free a più produttori e un solo consumatore.
+ * Gli slot sono preallocati e riutilizzati: i produttori reclamano una sequenza,
+ * scrivono nello slot e lo pubblicano; il consumatore li legge in ordine di sequenza
+ */
+public class RingBuffer<E> {
+    private final Object[] entries;
+    private final int mask;
+    private final AtomicLongArray published;         // Sequenza pubblicata in ogni slot
+    private final AtomicLong claimed = new AtomicLong(0);
+    private final AtomicLong consumed = new AtomicLong(-1);
+
+    /**
+     * @param capacity numero di slot, arrotondato alla potenza di 2 successiva
+     * @param factory crea gli oggetti slot preallocati
+     */
+    public RingBuffer(int capacity, Supplier<E> factory) {
+        int size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+        this.entries = new Object[size];
+        this.mask = size - 1;
+        this.published = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) {
+            entries[i] = factory.get();
+            published.set(i, -1);
+        }
+    }
+
+    /* Reclama la prossima sequenza, attendendo se il consumatore è indietro di un giro intero */
+    public long claim() {
+        long sequence = claimed.getAndIncrement();
+        while (sequence - entries.length > consumed.get()) {
+            Thread.onSpinWait();
+        }
+        return sequence;
+    }
+
+    @SuppressWarnings("unchecked")
+    public E get(long sequence) {
+        return (E) entries[(int) sequence & mask];
+    }
+
+    /* Rende lo slot visibile al consumatore */
+    public void publish(long sequence) {
+        published.lazySet((int) sequence & mask, sequence);
+    }
+
+    public boolean isPublished(long sequence) {
+        return published.get((int) sequence & mask) == sequence;
+    }
+
+    /* Il consumatore libera tutti gli slot fino a sequence compresa */
+    public void release(long sequence) {
+        consumed.lazySet(sequence);
+    }
+
+    public int capacity() {
+        return entries.length;
+    }
+
+    /* Numero di comandi pubblicati o in pubblicazione non ancora consumati */
+    public long backlog() {
+        return claimed.get() - consumed.get() - 1;
+    }
+}
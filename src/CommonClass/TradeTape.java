@@ -0,0 +1,256 @@
+package CommonClass;
+
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/*
+ * Nastro dei trade eseguiti: record a lunghezza fissa scritti in append su segmenti mappati in memoria
+ * (MappedByteBuffer), quindi nessuna system call per trade; un segmento pieno viene chiuso e se ne apre uno nuovo.
+ * Segmento: header di 64 byte [MAGIC][versione][dimensione record][capacità][primo tradeId], poi i record
+ * [tradeId i64][timestamp i64][orderId bid i32][orderId ask i32][prezzo i32][quantità i32].
+ * Il tradeId è scritto per ultimo con semantica release: un record con tradeId diverso da 0 è completo,
+ * così un Reader (anche in un altro processo) può seguire il nastro leggendo direttamente dalle pagine mappate
+ */
+public class TradeTape {
+    private static final int MAGIC = 0x54415045; // "TAPE"
+    private static final int VERSION = 1;
+    public static final int HEADER = 64;
+    public static final int RECORD_SIZE = 32;
+    private static final String PREFIX = "trades-";
+    private static final String SUFFIX = ".tape";
+
+    // Accesso atomico al tradeId e al MAGIC dell'header (release in scrittura, acquire in lettura)
+    private static final VarHandle LONG = MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.BIG_ENDIAN);
+    private static final VarHandle INT = MethodHandles.byteBufferViewVarHandle(int[].class, ByteOrder.BIG_ENDIAN);
+
+    /* Riceve i campi di un trade senza allocare oggetti */
+    public interface TradeHandler {
+        void onTrade(long tradeId, long timestamp, int bidOrderId, int askOrderId, int price, int size);
+    }
+
+    private final Path dir;
+    private final int capacity;   // Record per segmento
+    private MappedByteBuffer segment;
+    private int position;         // Indice del prossimo record nel segmento
+    private long nextTradeId;
+
+    private TradeTape(Path dir, int capacity) {
+        this.dir = dir;
+        this.capacity = capacity;
+    }
+
+    /**
+     * Apre il nastro riprendendo dopo l'ultimo record completo dell'ultimo segmento
+     * @param capacity record per ogni nuovo segmento
+     */
+    public static TradeTape open(String dir, int capacity) throws IOException {
+        TradeTape tape = new TradeTape(Paths.get(dir), capacity);
+        Files.createDirectories(tape.dir);
+        List<Path> segments = list(tape.dir);
+        if (segments.isEmpty()) {
+            tape.roll(1);
+        } else {
+            Path last = segments.get(segments.size() - 1);
+            MappedByteBuffer mapped = map(last, FileChannel.MapMode.READ_WRITE, 0);
+            if (mapped.capacity() < HEADER || (int) INT.getAcquire(mapped, 0) == 0) {
+                // Crash durante la creazione del segmento: header mai completato
+                tape.roll(firstTradeId(last));
+                System.out.println("Nastro dei trade aperto, prossimo tradeId " + tape.nextTradeId);
+                return tape;
+            }
+            tape.segment = mapped;
+            long first = checkHeader(tape.segment, last);
+            int records = tape.segment.getInt(12);
+            int i = 0;
+            while (i < records && (long) LONG.getAcquire(tape.segment, offset(i)) == first + i) {
+                i++;
+            }
+            tape.position = i;
+            tape.nextTradeId = first + i;
+            if (i == records) {
+                tape.roll(tape.nextTradeId);
+            }
+        }
+        System.out.println("Nastro dei trade aperto, prossimo tradeId " + tape.nextTradeId);
+        return tape;
+    }
+
+    /**
+     * Aggiunge un trade al nastro (un solo thread scrittore, quello che esegue il matching)
+     * @return il tradeId assegnato
+     */
+    public long append(long timestamp, int bidOrderId, int askOrderId, int price, int size) throws IOException {
+        if (position == segment.getInt(12)) {
+            roll(nextTradeId);
+        }
+        int offset = offset(position);
+        segment.putLong(offset + 8, timestamp);
+        segment.putInt(offset + 16, bidOrderId);
+        segment.putInt(offset + 20, askOrderId);
+        segment.putInt(offset + 24, price);
+        segment.putInt(offset + 28, size);
+        long tradeId = nextTradeId++;
+        LONG.setRelease(segment, offset, tradeId); // Pubblica il record
+        position++;
+        return tradeId;
+    }
+
+    /* Prossimo tradeId che verrà assegnato */
+    public long getNextTradeId() {
+        return nextTradeId;
+    }
+
+    /* Forza su disco le pagine del segmento corrente (ad esempio periodicamente, fuori dal matching) */
+    public void force() {
+        MappedByteBuffer current = segment;
+        if (current != null) {
+            current.force();
+        }
+    }
+
+    // Chiude il segmento corrente e ne crea uno nuovo che inizia da firstTradeId
+    private void roll(long firstTradeId) throws IOException {
+        if (segment != null) {
+            segment.force();
+        }
+        Path file = dir.resolve(fileName(firstTradeId));
+        MappedByteBuffer next = map(file, FileChannel.MapMode.READ_WRITE, HEADER + (long) capacity * RECORD_SIZE);
+        next.putInt(4, VERSION);
+        next.putInt(8, RECORD_SIZE);
+        next.putInt(12, capacity);
+        next.putLong(16, firstTradeId);
+        INT.setRelease(next, 0, MAGIC); // Header completo: il segmento è visibile ai lettori
+        segment = next;
+        position = 0;
+        nextTradeId = firstTradeId;
+    }
+
+    private static String fileName(long firstTradeId) {
+        return String.format("%s%020d%s", PREFIX, firstTradeId, SUFFIX);
+    }
+
+    private static long firstTradeId(Path file) {
+        String name = file.getFileName().toString();
+        return Long.parseLong(name.substring(PREFIX.length(), name.length() - SUFFIX.length()));
+    }
+
+    private static int offset(int record) {
+        return HEADER + record * RECORD_SIZE;
+    }
+
+    // Mappa un segmento; con size > 0 il file viene creato ed esteso alla dimensione richiesta
+    private static MappedByteBuffer map(Path file, FileChannel.MapMode mode, long size) throws IOException {
+        StandardOpenOption[] options = mode == FileChannel.MapMode.READ_ONLY
+                ? new StandardOpenOption[]{StandardOpenOption.READ}
+                : new StandardOpenOption[]{StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE};
+        try (FileChannel channel = FileChannel.open(file, options)) {
+            // La mappatura resta valida anche dopo la chiusura del canale
+            return channel.map(mode, 0, size > 0 ? size : channel.size());
+        }
+    }
+
+    private static long checkHeader(MappedByteBuffer buffer, Path file) throws IOException {
+        if (buffer.capacity() < HEADER || buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION
+                || buffer.getInt(8) != RECORD_SIZE
+                || buffer.capacity() < HEADER + (long) buffer.getInt(12) * RECORD_SIZE) {
+            throw new IOException("Segmento del nastro non valido: " + file);
+        }
+        return buffer.getLong(16);
+    }
+
+    // Segmenti presenti, in ordine di tradeId (il nome è a larghezza fissa)
+    private static List<Path> list(Path dir) throws IOException {
+        List<Path> files = new ArrayList<>();
+        if (!Files.isDirectory(dir)) return files;
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir, PREFIX + "*" + SUFFIX)) {
+            for (Path file : stream) {
+                files.add(file);
+            }
+        }
+        files.sort(null);
+        return files;
+    }
+
+    /**
+     * Lettore che segue il nastro: legge i record direttamente dai segmenti mappati in sola lettura
+     * e passa al segmento successivo quando quello corrente è finito. Non è thread safe
+     */
+    public static class Reader {
+        private final Path dir;
+        private MappedByteBuffer segment;
+        private int records;
+        private int position;
+        private long nextTradeId;
+
+        /* Lettore che parte dal trade fromTradeId (1 per leggere tutto il nastro) */
+        public Reader(String dir, long fromTradeId) {
+            this.dir = Paths.get(dir);
+            this.nextTradeId = Math.max(1, fromTradeId);
+        }
+
+        /**
+         * Consegna i trade disponibili dopo l'ultimo letto, al più max
+         * @return il numero di trade letti, 0 se non ce ne sono di nuovi
+         */
+        public int poll(TradeHandler handler, int max) throws IOException {
+            int read = 0;
+            while (read < max) {
+                if (segment == null || position == records) {
+                    if (!openSegment()) break;
+                    continue;
+                }
+                int offset = offset(position);
+                long tradeId = (long) LONG.getAcquire(segment, offset);
+                if (tradeId != nextTradeId) break; // Record non ancora scritto
+                handler.onTrade(tradeId, segment.getLong(offset + 8), segment.getInt(offset + 16),
+                        segment.getInt(offset + 20), segment.getInt(offset + 24), segment.getInt(offset + 28));
+                position++;
+                nextTradeId++;
+                read++;
+            }
+            return read;
+        }
+
+        public long getNextTradeId() {
+            return nextTradeId;
+        }
+
+        // Mappa il segmento che contiene nextTradeId, se esiste già
+        private boolean openSegment() throws IOException {
+            Path found;
+            if (segment == null) {
+                // Primo accesso: il segmento con il primo tradeId più alto non oltre nextTradeId
+                found = null;
+                for (Path file : list(dir)) {
+                    if (firstTradeId(file) > nextTradeId) break;
+                    found = file;
+                }
+                if (found == null) return false;
+            } else {
+                // Segmento finito: il successivo inizia esattamente da nextTradeId
+                found = dir.resolve(fileName(nextTradeId));
+                if (!Files.exists(found)) return false;
+            }
+            MappedByteBuffer mapped = map(found, FileChannel.MapMode.READ_ONLY, 0);
+            if (mapped.capacity() < HEADER || (int) INT.getAcquire(mapped, 0) == 0) return false; // Segmento in creazione
+            long first = checkHeader(mapped, found);
+            int count = mapped.getInt(12);
+            if (nextTradeId - first >= count) return false; // Segmento già completo: il successivo non esiste ancora
+            segment = mapped;
+            records = count;
+            position = (int) (nextTradeId - first);
+            return true;
+        }
+    }
+}
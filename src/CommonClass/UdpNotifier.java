@@ -0,0 +1,204 @@
+package CommonClass;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.DatagramChannel;
+import java.nio.charset.StandardCharsets;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+ * Notifiche UDP delle esecuzioni, fuori dal percorso delle richieste.
+ * Il motore accoda gli eventi senza attendere; un thread dedicato li raccoglie a blocchi,
+ * li raggruppa per destinatario e li invia con pochi datagrammi su un unico DatagramChannel,
+ * lo stesso su cui i client si registrano con "REGISTER=<token>".
+ * Il token viene rilasciato al login sulla connessione TCP autenticata: un datagramma con
+ * un token sconosciuto non registra nulla, quindi nessuno può farsi inviare le notifiche di un altro utente
+ */
+public class UdpNotifier {
+    private static final int QUEUE_CAPACITY = 64 * 1024;
+    private static final int MAX_DRAIN = 4096;      // Eventi raccolti per giro
+    private static final int MAX_DATAGRAM = 1400;   // Sotto la MTU tipica, niente frammentazione IP
+    private static final int TOKEN_BYTES = 16;
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    // Esecuzione da notificare a un utente
+    private static final class Fill {
+        final String username;
+        final int orderId;
+        final int quantity;
+        final int price;
+
+        Fill(String username, int orderId, int quantity, int price) {
+            this.username = username;
+            this.orderId = orderId;
+            this.quantity = quantity;
+            this.price = price;
+        }
+    }
+
+    private final int port;
+    private final Map<String, SocketAddress> endpoints = new ConcurrentHashMap<>(); // username -> indirizzo UDP
+    private final Map<String, String> tokens = new ConcurrentHashMap<>();           // token -> username
+    private final Map<String, String> userTokens = new ConcurrentHashMap<>();       // username -> token corrente
+    private final BlockingQueue<Fill> queue = new LinkedBlockingQueue<>(QUEUE_CAPACITY);
+    private final AtomicLong dropped = new AtomicLong();
+    private final MetricTimer sendTimer = Metrics.timer("udp.notify.send");
+    private DatagramChannel channel;
+    private volatile boolean running;
+
+    public UdpNotifier(int port) {
+        this.port = port;
+    }
+
+    /* Apre il canale e avvia i thread di registrazione e di invio */
+    public void start() throws IOException {
+        channel = DatagramChannel.open();
+        channel.bind(new InetSocketAddress(port));
+        running = true;
+
+        Thread receiver = new Thread(this::receiveRegistrations, "udp-registrations");
+        receiver.setDaemon(true);
+        receiver.start();
+
+        Thread sender = new Thread(this::sendLoop, "udp-notifier");
+        sender.setDaemon(true);
+        sender.start();
+        System.out.println("Server in attesa di registrazioni dai client sulla porta UDP " + port);
+    }
+
+    public void stop() {
+        running = false;
+        try {
+            channel.close();
+        } catch (IOException ignored) {
+        }
+    }
+
+    /**
+     * Rilascia un nuovo token di registrazione per un utente appena autenticato,
+     * invalidando quello della sessione precedente
+     * @return il token da inviare con "REGISTER=<token>"
+     */
+    public String issueToken(String username) {
+        byte[] random = new byte[TOKEN_BYTES];
+        RANDOM.nextBytes(random);
+        String token = HexFormat.of().formatHex(random);
+        tokens.put(token, username);
+        String previous = userTokens.put(username, token);
+        if (previous != null) tokens.remove(previous);
+        return token;
+    }
+
+    /* Al logout il token non vale più e l'utente smette di ricevere notifiche */
+    public void revoke(String username) {
+        String token = userTokens.remove(username);
+        if (token != null) tokens.remove(token);
+        endpoints.remove(username);
+    }
+
+    private void registerClient(String token, SocketAddress address) {
+        String username = tokens.get(token);
+        if (username == null) return; // Token sconosciuto o revocato
+        endpoints.put(username, address);
+        System.out.println("Client registrato: " + username + " - " + address);
+    }
+
+    /**
+     * Accoda l'esecuzione di una quantità di un ordine per il suo proprietario.
+     * Non blocca mai: con la coda piena l'evento viene scartato (le notifiche UDP sono best effort)
+     */
+    public void fill(String username, int orderId, int quantity, int price) {
+        if (username == null) return;
+        if (!queue.offer(new Fill(username, orderId, quantity, price))) {
+            dropped.incrementAndGet();
+        }
+    }
+
+    /* Notifiche scartate per coda piena */
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    private void receiveRegistrations() {
+        ByteBuffer buffer = ByteBuffer.allocate(1024);
+        while (running) {
+            try {
+                buffer.clear();
+                SocketAddress from = channel.receive(buffer);
+                buffer.flip();
+                String message = StandardCharsets.UTF_8.decode(buffer).toString().trim();
+                if (message.startsWith("REGISTER=") && message.length() > "REGISTER=".length()) {
+                    registerClient(message.substring("REGISTER=".length()), from);
+                }
+            } catch (ClosedChannelException e) {
+                return;
+            } catch (IOException e) {
+                System.err.println("Errore nella ricezione UDP: " + e.getMessage());
+            }
+        }
+    }
+
+    private void sendLoop() {
+        List<Fill> batch = new ArrayList<>();
+        Map<String, StringBuilder> messages = new LinkedHashMap<>();
+        while (running) {
+            try {
+                batch.add(queue.take());
+            } catch (InterruptedException e) {
+                return;
+            }
+            queue.drainTo(batch, MAX_DRAIN);
+
+            // Un messaggio per destinatario con tutte le sue esecuzioni del blocco
+            for (Fill fill : batch) {
+                messages.computeIfAbsent(fill.username, k -> new StringBuilder())
+                        .append("Ordine eseguito: ID ").append(fill.orderId)
+                        .append(" | Quantità: ").append(fill.quantity)
+                        .append(" | Prezzo: ").append(fill.price).append('\n');
+            }
+            for (Map.Entry<String, StringBuilder> message : messages.entrySet()) {
+                SocketAddress endpoint = endpoints.get(message.getKey());
+                if (endpoint != null) {
+                    send(endpoint, message.getValue());
+                }
+            }
+            batch.clear();
+            messages.clear();
+        }
+    }
+
+    // Invia il testo spezzandolo a fine riga in datagrammi di al più MAX_DATAGRAM byte
+    private void send(SocketAddress endpoint, StringBuilder text) {
+        byte[] bytes = text.toString().getBytes(StandardCharsets.UTF_8);
+        int start = 0;
+        while (start < bytes.length) {
+            int end = Math.min(start + MAX_DATAGRAM, bytes.length);
+            if (end < bytes.length) {
+                int cut = end;
+                while (cut > start && bytes[cut - 1] != '\n') cut--;
+                if (cut > start) end = cut;
+            }
+            long sendStart = sendTimer.start();
+            try {
+                channel.send(ByteBuffer.wrap(bytes, start, end - start), endpoint);
+                sendTimer.stop(sendStart);
+            } catch (IOException e) {
+                System.err.println("Errore nell'invio della notifica UDP a " + endpoint + ": " + e.getMessage());
+                return;
+            }
+            start = end;
+        }
+    }
+}
@@ -0,0 +1,15 @@
+package Server;
+
+/* Richiesta di register e login */
+public class AuthRequest extends OperationRequest {
+    private final String password;
+
+    public AuthRequest(String operation, String username, String password) {
+        super(operation, username);
+        this.password = password;
+    }
+
+    public String getPassword() {
+        return password;
+    }
+}
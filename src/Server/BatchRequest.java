@@ -0,0 +1,17 @@
+package Server;
+
+import java.util.List;
+
+/* Richiesta con più ordini (limit, market, stop) da applicare in un solo passaggio */
+public class BatchRequest extends OperationRequest {
+    private final List<OrderRequest> orders;
+
+    public BatchRequest(String operation, String username, List<OrderRequest> orders) {
+        super(operation, username);
+        this.orders = orders;
+    }
+
+    public List<OrderRequest> getOrders() {
+        return orders;
+    }
+}
@@ -1,18 +1,45 @@
 package Server;
 
+import CommonClass.BinaryProtocol;
 import CommonClass.CompraVendita;
-import com.google.gson.Gson;
+import CommonClass.MetricTimer;
+import CommonClass.Metrics;
+import CommonClass.UdpNotifier;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.PrintWriter;
 import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
 
 public class CROSSServer implements Runnable {
+    // Operazioni con un timer proprio, creati una volta sola; le altre finiscono in request.other (i nomi arrivano dai client)
+    private static final Map<String, MetricTimer> requestTimers = new HashMap<>();
+    private static final MetricTimer otherTimer = Metrics.timer("request.other");
+    static {
+        for (String operazione : List.of("register", "login", "logout", "limitorder", "marketorder", "stoporder",
+                "batchorders", "modifyorder", "cancelorder", "updatecredentials", "history", "getorderbook", "getcandles",
+                "stats")) {
+            requestTimers.put(operazione, Metrics.timer("request." + operazione));
+        }
+    }
+    private static final MetricTimer binaryTimer = Metrics.timer("request.binary");
+    private static final LongAdder invalidRequests = Metrics.counter("request.invalid");
+    private static final LongAdder unauthenticatedRequests = Metrics.counter("request.unauthenticated");
+
     private final Socket socket;
-    private final Gson gson = new Gson();
     private final SessionManager sessionManager;
     private final CompraVendita compravendita;
+    private String binaryUser; // Utente collegato alla connessione binaria (LOGIN o BIND)
 
     public CROSSServer(Socket socket, SessionManager sessionManager, CompraVendita compraVendita ) {
         this.compravendita = compraVendita;
@@ -20,11 +47,34 @@ public class CROSSServer implements Runnable {
         this.sessionManager = sessionManager;
     }
 
+    // Costruttore per il front end NIO: le richieste arrivano già divise in righe tramite handleRequest
+    public CROSSServer(SessionManager sessionManager, CompraVendita compraVendita) {
+        this(null, sessionManager, compraVendita);
+    }
+
     @Override
     public void run() {
         System.out.println("Gestione della richiesta per il client...");
 
-        try (BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+        try {
+            // Il primo byte decide il protocollo: MAGIC per il binario, altrimenti righe JSON
+            InputStream raw = new BufferedInputStream(socket.getInputStream());
+            raw.mark(1);
+            int first = raw.read();
+            if (first == BinaryProtocol.MAGIC) {
+                runBinary(new DataInputStream(raw));
+                return;
+            }
+            raw.reset();
+            runJson(raw);
+        } catch (IOException e) {
+            System.out.println("Errore nella comunicazione con il client: " + e.getMessage());
+            e.printStackTrace();
+        }
+    }
+
+    private void runJson(InputStream raw) throws IOException {
+        try (BufferedReader in = new BufferedReader(new InputStreamReader(raw));
              PrintWriter out = new PrintWriter(socket.getOutputStream(), true)) {
 
             String inputLine;
@@ -32,61 +82,206 @@ public class CROSSServer implements Runnable {
                 System.out.println("Ricevuto: " + inputLine);
 
 
-                // Deserializzazione JSON per ottenere la richiesta
-                OperationRequest request = gson.fromJson(inputLine, OperationRequest.class);
-                String operazione = request.getOperation().toLowerCase();
-                String username = (String) request.getValues().get("username");
-                if (username == null) {
-                    System.err.println("Errore: username nullo nella richiesta.");
-                    out.println("{ \"response\": 400, \"errorMessage\": \"Username mancante nella richiesta\" }");
+                if (!handleRequest(inputLine, out)) {
                     return;
                 }
+            }
+        }
+    }
+
+    private void runBinary(DataInputStream in) throws IOException {
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()))) {
+            ByteBuffer frame;
+            while ((frame = BinaryProtocol.readFrame(in)) != null) {
+                ByteBuffer response = handleBinary(frame);
+                out.write(response.array(), response.arrayOffset() + response.position(), response.remaining());
+                out.flush();
+            }
+        }
+    }
 
-                switch (operazione) {
-                    case "register":
-                        Operazioni.Register(request.getValues(), out);
-                        break;
-                    case "login":
-                        handleLogin(request, out);
-                        break;
-                    case "logout":
-                        handleLogout(username, out);
-                        break;
-                    case "limitorder":
-                    case "marketorder":
-                    case "stoporder":
-                    case "cancelorder":
-                    case "updatecredentials":
-                    case "history":
-                        if (SessionManager.isLoggedIn(username)) {
-                            handleAuthenticatedOperation(operazione, request, out, compravendita);
+    /**
+     * Esegue una richiesta binaria (frame a partire dall'opcode)
+     * @return il frame di risposta da inviare al client
+     */
+    public ByteBuffer handleBinary(ByteBuffer frame) {
+        long start = binaryTimer.start();
+        int orderId = 0;
+        int code;
+        try {
+            byte opcode = frame.get();
+            switch (opcode) {
+                case BinaryProtocol.LOGIN: {
+                    String username = BinaryProtocol.getString(frame);
+                    String password = BinaryProtocol.getString(frame);
+                    code = Operazioni.authenticate(username, password);
+                    if (code == 100) binaryUser = username;
+                    break;
+                }
+                case BinaryProtocol.BIND: {
+                    // La connessione binaria può affiancare una sessione già aperta via JSON, con le stesse credenziali
+                    String username = BinaryProtocol.getString(frame);
+                    String password = BinaryProtocol.getString(frame);
+                    if (!SessionManager.isLoggedIn(username)) {
+                        code = 401;
+                    } else {
+                        code = Operazioni.checkPassword(username, password) ? 100 : 101;
+                    }
+                    if (code == 100) binaryUser = username;
+                    break;
+                }
+                case BinaryProtocol.LOGOUT:
+                    if (binaryUser == null) {
+                        code = 101;
+                    } else {
+                        SessionManager.removeSession(binaryUser);
+                        revokeNotifications(binaryUser);
+                        binaryUser = null;
+                        code = 100;
+                    }
+                    break;
+                case BinaryProtocol.LIMIT:
+                case BinaryProtocol.MARKET:
+                case BinaryProtocol.STOP: {
+                    orderId = frame.getInt();
+                    String side = BinaryProtocol.decodeSide(frame.get());
+                    int size = frame.getInt();
+                    int price = opcode == BinaryProtocol.MARKET ? 0 : frame.getInt();
+                    if (binaryUser == null || !SessionManager.isLoggedIn(binaryUser)) {
+                        code = 401;
+                    } else if (side == null || size <= 0 || (opcode != BinaryProtocol.MARKET && price <= 0)) {
+                        code = 400;
+                    } else {
+                        Order order;
+                        if (opcode == BinaryProtocol.LIMIT) {
+                            order = new Order(orderId, binaryUser, side, "limit", size, price, 0, System.currentTimeMillis());
+                        } else if (opcode == BinaryProtocol.MARKET) {
+                            order = new Order(orderId, binaryUser, side, "market", size, 0, 0, System.currentTimeMillis());
                         } else {
-                            System.out.println("Tentativo di accesso non autorizzato da: " + username);
-                            out.println("{ \"response\": 401, \"errorMessage\": \"User not authenticated\" }");
+                            order = new Order(orderId, binaryUser, side, "stop", size, 0, price, System.currentTimeMillis());
                         }
-                        break;
-                    case "exit":
-                        // Quando un utente richiede la chiusura del serve il server deve smettere di accettare connessioni
-                        // Terminare quelle che oramai ha accettato e nel caso dopo 1 minuto salvare tutto e chiudere in maniera forzata
-                        break;
-                    default:
-                        System.out.println("Operazione sconosciuta ricevuta: " + operazione);
-                        out.println(Error.getBadRequestResponse());
-                        break;
+                        code = Operazioni.eseguiOrdine(order, compravendita);
+                    }
+                    break;
                 }
-
+                case BinaryProtocol.CANCEL:
+                    orderId = frame.getInt();
+                    if (binaryUser == null || !SessionManager.isLoggedIn(binaryUser)) {
+                        code = 401;
+                    } else {
+                        code = Operazioni.cancellaOrdine(binaryUser, orderId, compravendita);
+                    }
+                    break;
+                case BinaryProtocol.MODIFY: {
+                    orderId = frame.getInt();
+                    int size = frame.getInt();
+                    int price = frame.getInt();
+                    if (binaryUser == null || !SessionManager.isLoggedIn(binaryUser)) {
+                        code = 401;
+                    } else {
+                        code = Operazioni.modificaOrdine(binaryUser, orderId, size, price, compravendita);
+                    }
+                    break;
+                }
+                default:
+                    System.out.println("Opcode sconosciuto ricevuto: " + opcode);
+                    code = 400;
             }
+        } catch (RuntimeException e) {
+            // Frame troncato o malformato
+            System.err.println("Errore nella gestione del frame binario: " + e);
+            code = 400;
+        }
+        if (code == 400) invalidRequests.increment();
+        if (code == 401) unauthenticatedRequests.increment();
+        binaryTimer.stop(start);
+        return BinaryProtocol.encodeResponse(code, orderId);
+    }
+
+    /**
+     * Esegue una singola richiesta (una riga JSON) scrivendo la risposta su out
+     * @return false se la connessione deve essere chiusa
+     */
+    public boolean handleRequest(String inputLine, PrintWriter out) {
+        long start = System.nanoTime();
+        // Decodifica in streaming nella richiesta tipizzata dell'operazione
+        OperationRequest request;
+        try {
+            request = RequestDecoder.decode(inputLine);
         } catch (IOException e) {
-            System.out.println("Errore nella comunicazione con il client: " + e.getMessage());
-            e.printStackTrace();
+            System.out.println("Richiesta non valida: " + e.getMessage());
+            invalidRequests.increment();
+            out.println(Error.getBadRequestResponse());
+            return true;
+        }
+        String operazione = request.getOperation();
+        try {
+            return dispatch(request, out);
+        } finally {
+            // Tempo dalla decodifica alla risposta scritta
+            requestTimers.getOrDefault(operazione, otherTimer).stop(start);
         }
     }
 
+    private boolean dispatch(OperationRequest request, PrintWriter out) {
+        String operazione = request.getOperation();
+        String username = request.getUsername();
+        if (request.hasRequestId()) {
+            out = new CorrelatedWriter(out, request.getRequestId());
+        }
+        if (username == null) {
+            System.err.println("Errore: username nullo nella richiesta.");
+            out.println("{ \"response\": 400, \"errorMessage\": \"Username mancante nella richiesta\" }");
+            return false;
+        }
+
+        switch (operazione) {
+            case "register":
+                Operazioni.Register((AuthRequest) request, out);
+                break;
+            case "login":
+                handleLogin((AuthRequest) request, out);
+                break;
+            case "logout":
+                handleLogout(username, out);
+                break;
+            case "limitorder":
+            case "marketorder":
+            case "stoporder":
+            case "batchorders":
+            case "modifyorder":
+            case "cancelorder":
+            case "updatecredentials":
+            case "history":
+            case "getorderbook":
+            case "getcandles":
+            case "stats":
+                if (SessionManager.isLoggedIn(username)) {
+                    handleAuthenticatedOperation(operazione, request, out, compravendita);
+                } else {
+                    System.out.println("Tentativo di accesso non autorizzato da: " + username);
+                    unauthenticatedRequests.increment();
+                    out.println("{ \"response\": 401, \"errorMessage\": \"User not authenticated\" }");
+                }
+                break;
+            case "exit":
+                // Quando un utente richiede la chiusura del serve il server deve smettere di accettare connessioni
+                // Terminare quelle che oramai ha accettato e nel caso dopo 1 minuto salvare tutto e chiudere in maniera forzata
+                break;
+            default:
+                System.out.println("Operazione sconosciuta ricevuta: " + operazione);
+                invalidRequests.increment();
+                out.println(Error.getBadRequestResponse());
+                break;
+        }
+        return true;
+    }
+
     /**
      * Gestisce il login con gestione della sessione
      */
-    private void handleLogin(OperationRequest request, PrintWriter out) {
-        String username = (String) request.getValues().get("username");
+    private void handleLogin(AuthRequest request, PrintWriter out) {
+        String username = request.getUsername();
 
         if (username == null || username.isEmpty()) {
             System.err.println("Errore: Username nullo o mancante nella richiesta di login.");
@@ -102,7 +297,7 @@ public class CROSSServer implements Runnable {
         }
 
         // Esegue il login se non è già loggato
-        if (Operazioni.Login(request.getValues(), out)) {
+        if (Operazioni.Login(request, out, compravendita.getNotifier())) {
             Session newSession = new Session(username, socket);
             sessionManager.addSession(username, newSession);
             System.out.println("DEBUG: Sessione creata per " + username);
@@ -111,6 +306,12 @@ public class CROSSServer implements Runnable {
 
 
 
+    /* Invalida il token UDP dell'utente e ne sospende le notifiche */
+    private void revokeNotifications(String username) {
+        UdpNotifier notifier = compravendita.getNotifier();
+        if (notifier != null) notifier.revoke(username);
+    }
+
     /**
      * Gestisce il logout rimuovendo la sessione
      */
@@ -120,6 +321,7 @@ public class CROSSServer implements Runnable {
             return;
         }
         SessionManager.removeSession(username);
+        revokeNotifications(username);
         out.println(Error.getRegistrationErrorResponse(100));
     }
 
@@ -130,22 +332,37 @@ public class CROSSServer implements Runnable {
 
         switch (operazione) {
             case "cancelorder":
-                Operazioni.CancelOrder(request.getValues(), out, cv);
+                Operazioni.CancelOrder((CancelRequest) request, out, cv);
                 break;
             case "updatecredentials":
-                Operazioni.UpdateCredentials(request.getValues(), out);
+                Operazioni.UpdateCredentials((UpdateCredentialsRequest) request, out);
                 break;
             case "limitorder":
-                Operazioni.LimitOrder( request.getValues(), out, cv);
+                Operazioni.LimitOrder((OrderRequest) request, out, cv);
                 break;
             case "marketorder":
-                Operazioni.MarketOrder(request.getValues(), out, cv);
+                Operazioni.MarketOrder((OrderRequest) request, out, cv);
                 break;
             case "stoporder":
-                Operazioni.StopOrder(request.getValues(), out, cv);
+                Operazioni.StopOrder((OrderRequest) request, out, cv);
                 break;
             case "history":
-                Operazioni.History(request.getValues(), out, cv);
+                Operazioni.History((HistoryRequest) request, out, cv);
+                break;
+            case "getorderbook":
+                Operazioni.GetOrderBook((OrderBookRequest) request, out, cv);
+                break;
+            case "getcandles":
+                Operazioni.GetCandles((CandleRequest) request, out, cv);
+                break;
+            case "batchorders":
+                Operazioni.BatchOrders((BatchRequest) request, out, cv);
+                break;
+            case "modifyorder":
+                Operazioni.ModifyOrder((OrderRequest) request, out, cv);
+                break;
+            case "stats":
+                Operazioni.Stats(out);
                 break;
             default:
                 out.println(Error.getBadRequestResponse());
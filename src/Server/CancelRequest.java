@@ -0,0 +1,15 @@
+package Server;
+
+/* Richiesta di cancellazione di un ordine */
+public class CancelRequest extends OperationRequest {
+    private final int orderId;
+
+    public CancelRequest(String operation, String username, int orderId) {
+        super(operation, username);
+        this.orderId = orderId;
+    }
+
+    public int getOrderId() {
+        return orderId;
+    }
+}
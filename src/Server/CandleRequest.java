@@ -0,0 +1,33 @@
+package Server;
+
+/* Richiesta delle candele OHLCV di un timeframe ("1s", "1m", "1h", "1d") tra from e to (millisecondi) */
+public class CandleRequest extends OperationRequest {
+    private final String timeframe;
+    private final long from;  // 0 = dall'inizio
+    private final long to;    // 0 = fino all'ultima barra
+    private final int limit;  // Numero massimo di barre, 0 = valore predefinito
+
+    public CandleRequest(String operation, String username, String timeframe, long from, long to, int limit) {
+        super(operation, username);
+        this.timeframe = timeframe;
+        this.from = from;
+        this.to = to;
+        this.limit = limit;
+    }
+
+    public String getTimeframe() {
+        return timeframe;
+    }
+
+    public long getFrom() {
+        return from;
+    }
+
+    public long getTo() {
+        return to;
+    }
+
+    public int getLimit() {
+        return limit;
+    }
+}
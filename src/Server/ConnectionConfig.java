@@ -2,8 +2,78 @@ package Server;
 
 public class ConnectionConfig {
     private int port;
+    private boolean engine;   // true: matching su thread dedicato alimentato dal ring buffer
+    private int ringSize;     // Numero di slot del ring buffer del motore
+    private int snapshotIntervalSeconds; // Intervallo tra due snapshot del book
+    private int journalSyncMillis; // 0: journal su disco prima di ogni risposta (per gruppo), > 0: force periodica
+    private String frontEnd;  // "blocking" (pool di thread), "virtual" (virtual thread per connessione) oppure "nio" (selector)
+    private int workerThreads; // Thread che eseguono le richieste
+    private int udpPort;      // Porta UDP per registrazioni e notifiche dei client
+    private String marketDataGroup;     // Gruppo multicast del market data, assente per disattivarlo
+    private int marketDataPort;
+    private String marketDataInterface; // Interfaccia di uscita, ad esempio "lo" in locale
+    private int marketDataTtl;
+    private int marketDataSnapshotSeconds; // Intervallo tra due snapshot completi del book
+    private int metricsPort;  // Porta HTTP delle metriche in formato Prometheus, 0 o assente per disattivarla
+    private String metricsBindAddress; // Indirizzo dell'endpoint delle metriche (senza autenticazione), di default solo loopback
 
     public int getPort() {
         return this.port;
     }
+
+    public boolean isEngine() {
+        return this.engine;
+    }
+
+    public int getRingSize() {
+        return this.ringSize > 0 ? this.ringSize : 65536;
+    }
+
+    public int getSnapshotIntervalSeconds() {
+        return this.snapshotIntervalSeconds > 0 ? this.snapshotIntervalSeconds : 60;
+    }
+
+    public int getJournalSyncMillis() {
+        return Math.max(0, this.journalSyncMillis);
+    }
+
+    public String getFrontEnd() {
+        return this.frontEnd != null ? this.frontEnd : "blocking";
+    }
+
+    public int getWorkerThreads() {
+        return this.workerThreads > 0 ? this.workerThreads : 10;
+    }
+
+    public int getUdpPort() {
+        return this.udpPort > 0 ? this.udpPort : 6000;
+    }
+
+    public String getMarketDataGroup() {
+        return this.marketDataGroup;
+    }
+
+    public int getMarketDataPort() {
+        return this.marketDataPort > 0 ? this.marketDataPort : 6001;
+    }
+
+    public String getMarketDataInterface() {
+        return this.marketDataInterface;
+    }
+
+    public int getMarketDataTtl() {
+        return this.marketDataTtl > 0 ? this.marketDataTtl : 1;
+    }
+
+    public int getMarketDataSnapshotSeconds() {
+        return this.marketDataSnapshotSeconds > 0 ? this.marketDataSnapshotSeconds : 5;
+    }
+
+    public int getMetricsPort() {
+        return this.metricsPort;
+    }
+
+    public String getMetricsBindAddress() {
+        return this.metricsBindAddress != null ? this.metricsBindAddress : "127.0.0.1";
+    }
 }
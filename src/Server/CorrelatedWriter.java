@@ -0,0 +1,30 @@
+package Server;
+
+import java.io.PrintWriter;
+
+/*
+ * PrintWriter che aggiunge "requestId" a ogni risposta JSON di una richiesta,
+ * così il client può tenere più richieste in volo sulla stessa connessione
+ */
+class CorrelatedWriter extends PrintWriter {
+    private final PrintWriter target;
+    private final long requestId;
+
+    CorrelatedWriter(PrintWriter target, long requestId) {
+        super(target, true);
+        this.target = target;
+        this.requestId = requestId;
+    }
+
+    @Override
+    public void println(String line) {
+        int brace = line == null ? -1 : line.indexOf('{');
+        if (brace < 0) {
+            target.println(line);
+            return;
+        }
+        String rest = line.substring(brace + 1).stripLeading();
+        String separator = rest.startsWith("}") ? "" : ", ";
+        target.println("{\"requestId\": " + requestId + separator + rest);
+    }
+}
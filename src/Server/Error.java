@@ -83,6 +83,11 @@ public class Error {
         return "{\"response\": " + code + ", \"errorMessage\": \"" + message + "\"}";
     }
 
+    // Ordine rifiutato perché il suo orderId è già in uso (codice 409)
+    public static String getDuplicateOrderResponse() {
+        return "{\"response\": 409, \"errorMessage\": \"Conflict: orderId already in use\"}";
+    }
+
     // Metodo per gestire errori di Bad Request (codice 400)
     public static String getBadRequestResponse() {
         return "{\"response\": 400, \"errorMessage\": \"Bad Request: Operazione non riconosciuta o richiesta mal formata\"}";
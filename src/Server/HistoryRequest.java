@@ -0,0 +1,27 @@
+package Server;
+
+/* Richiesta di una pagina dello storico degli ordini di un mese (MMYYYY) */
+public class HistoryRequest extends OperationRequest {
+    private final String date;
+    private final int cursor; // Posizione da cui riprendere, 0 per la prima pagina
+    private final int limit;  // Ordini per pagina, 0 = valore predefinito
+
+    public HistoryRequest(String operation, String username, String date, int cursor, int limit) {
+        super(operation, username);
+        this.date = date;
+        this.cursor = cursor;
+        this.limit = limit;
+    }
+
+    public String getDate() {
+        return date;
+    }
+
+    public int getCursor() {
+        return cursor;
+    }
+
+    public int getLimit() {
+        return limit;
+    }
+}
@@ -0,0 +1,324 @@
+package Server;
+
+import CommonClass.BinaryProtocol;
+import CommonClass.CompraVendita;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/*
+ * Front end di rete non bloccante: un solo thread con Selector accetta le connessioni,
+ * legge i byte in buffer per connessione e li divide in righe; le richieste complete
+ * vengono eseguite dal pool di worker, in ordine per ogni connessione.
+ * Se il primo byte è BinaryProtocol.MAGIC la connessione usa i frame binari invece delle righe.
+ * Le code di una connessione sono limitate: oltre MAX_QUEUED_REQUESTS richieste in attesa o MAX_PENDING_OUTPUT
+ * byte di risposte non inviate il selector smette di leggerla (e il worker di eseguirla) finché non scendono
+ * sotto la metà, così un client che invia più in fretta di quanto viene servito o che non legge le risposte
+ * rallenta solo se stesso invece di far crescere la memoria del server
+ */
+public class NioServer {
+    private static final int READ_BUFFER = 8 * 1024;
+    private static final int MAX_LINE = 64 * 1024;
+    private static final int MAX_FRAME = 2 + 0xFFFF;        // Frame binario più lungo: lunghezza u16 + payload massimo
+    private static final int MAX_QUEUED_REQUESTS = 1024;    // Richieste lette e non ancora eseguite
+    private static final int MAX_PENDING_OUTPUT = 1 << 20;  // Byte di risposte non ancora inviate
+
+    private final int port;
+    private final SessionManager sessionManager;
+    private final CompraVendita compraVendita;
+    private final ExecutorService workers;
+    private final Queue<Connection> updates = new ConcurrentLinkedQueue<>(); // Connessioni con interessi da ricalcolare
+    private Selector selector;
+
+    public NioServer(int port, SessionManager sessionManager, CompraVendita compraVendita, ExecutorService workers) {
+        this.port = port;
+        this.sessionManager = sessionManager;
+        this.compraVendita = compraVendita;
+        this.workers = workers;
+    }
+
+    /* Ciclo del selector: non ritorna finché il server è attivo */
+    public void start() throws IOException {
+        selector = Selector.open();
+        try (ServerSocketChannel server = ServerSocketChannel.open()) {
+            server.bind(new InetSocketAddress(port));
+            server.configureBlocking(false);
+            server.register(selector, SelectionKey.OP_ACCEPT);
+            System.out.println("Server NIO in ascolto sulla porta: " + port);
+
+            while (true) {
+                selector.select();
+
+                // Scrittura per le connessioni con nuove risposte, lettura per quelle tornate sotto soglia
+                Connection pending;
+                while ((pending = updates.poll()) != null) {
+                    pending.updateInterest();
+                }
+
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    try {
+                        if (!key.isValid()) continue;
+                        if (key.isAcceptable()) {
+                            accept(server);
+                        }
+                        if (key.isValid() && key.isReadable()) {
+                            ((Connection) key.attachment()).read();
+                        }
+                        if (key.isValid() && key.isWritable()) {
+                            ((Connection) key.attachment()).write();
+                        }
+                    } catch (IOException e) {
+                        System.out.println("Errore nella comunicazione con il client: " + e.getMessage());
+                        close(key);
+                    }
+                }
+            }
+        }
+    }
+
+    private void accept(ServerSocketChannel server) throws IOException {
+        SocketChannel channel = server.accept();
+        if (channel == null) return;
+        channel.configureBlocking(false);
+        channel.socket().setTcpNoDelay(true);
+        SelectionKey key = channel.register(selector, SelectionKey.OP_READ);
+        key.attach(new Connection(channel, key));
+    }
+
+    private static void close(SelectionKey key) {
+        key.cancel();
+        try {
+            key.channel().close();
+        } catch (IOException ignored) {
+        }
+    }
+
+    // Stato di una connessione: buffer di lettura, righe in attesa e risposte da scrivere
+    private final class Connection {
+        private final SocketChannel channel;
+        private final SelectionKey key;
+        private final CROSSServer handler;
+        private final PrintWriter out;
+        private ByteBuffer readBuffer = ByteBuffer.allocate(READ_BUFFER);
+        private final Queue<String> requests = new ConcurrentLinkedQueue<>();
+        private final Queue<ByteBuffer> frames = new ConcurrentLinkedQueue<>(); // Richieste in modalità binaria
+        private final AtomicInteger queued = new AtomicInteger(); // Elementi di requests e frames
+        private int mode = -1; // -1 non ancora deciso, 0 JSON, 1 binario (solo thread del selector)
+        private final Queue<ByteBuffer> responses = new ArrayDeque<>();
+        private volatile long pendingOutput; // Byte in responses (scritto sotto il lock di responses)
+        private volatile boolean readPaused; // Lettura sospesa per code piene (scritto dal solo selector)
+        private final AtomicBoolean busy = new AtomicBoolean(false);
+        private volatile boolean closeAfterWrite;
+
+        Connection(SocketChannel channel, SelectionKey key) {
+            this.channel = channel;
+            this.key = key;
+            this.handler = new CROSSServer(sessionManager, compraVendita);
+            this.out = new PrintWriter(new ResponseWriter(this), true);
+        }
+
+        /* Legge i byte disponibili ed estrae le righe complete */
+        void read() throws IOException {
+            int n = channel.read(readBuffer);
+            if (n < 0) {
+                close(key);
+                return;
+            }
+            readBuffer.flip();
+            int start = readBuffer.position();
+            if (mode < 0 && readBuffer.hasRemaining()) {
+                mode = (readBuffer.get(start) & 0xFF) == BinaryProtocol.MAGIC ? 1 : 0;
+                if (mode == 1) start++;
+            }
+            if (mode == 1) {
+                start = splitFrames(start);
+            } else for (int i = start; i < readBuffer.limit(); i++) {
+                if (readBuffer.get(i) == '\n') {
+                    int end = i > start && readBuffer.get(i - 1) == '\r' ? i - 1 : i;
+                    requests.add(new String(readBuffer.array(), start, end - start, StandardCharsets.UTF_8));
+                    queued.incrementAndGet();
+                    start = i + 1;
+                }
+            }
+            readBuffer.position(start);
+            readBuffer.compact();
+
+            // Riga o frame più lungo del buffer: lo ingrandisce fino al limite consentito
+            if (!readBuffer.hasRemaining()) {
+                int limit = mode == 1 ? MAX_FRAME : MAX_LINE;
+                if (readBuffer.capacity() >= limit) {
+                    System.err.println("Richiesta troppo lunga, connessione chiusa");
+                    close(key);
+                    return;
+                }
+                ByteBuffer larger = ByteBuffer.allocate(Math.min(readBuffer.capacity() * 2, limit));
+                readBuffer.flip();
+                larger.put(readBuffer);
+                readBuffer = larger;
+            }
+            schedule();
+
+            if (aboveHighWater()) {
+                readPaused = true;
+                key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+                // Il worker può essere sceso sotto soglia prima di vedere readPaused
+                if (belowLowWater()) updateInterest();
+            }
+        }
+
+        private boolean aboveHighWater() {
+            return queued.get() >= MAX_QUEUED_REQUESTS || pendingOutput >= MAX_PENDING_OUTPUT;
+        }
+
+        private boolean belowLowWater() {
+            return queued.get() <= MAX_QUEUED_REQUESTS / 2 && pendingOutput <= MAX_PENDING_OUTPUT / 2;
+        }
+
+        /* Interessi del selector: scrittura se ci sono risposte, lettura se non sospesa (solo thread del selector) */
+        void updateInterest() {
+            if (!key.isValid()) return;
+            if (readPaused && belowLowWater()) {
+                readPaused = false;
+            }
+            int ops = readPaused ? 0 : SelectionKey.OP_READ;
+            synchronized (responses) {
+                if (!responses.isEmpty()) ops |= SelectionKey.OP_WRITE;
+            }
+            key.interestOps(ops);
+        }
+
+        // Chiede al selector di ricalcolare gli interessi della connessione
+        private void requestUpdate() {
+            updates.add(this);
+            selector.wakeup();
+        }
+
+        // Estrae i frame [lunghezza u16][opcode][payload] completi, restituisce l'inizio del primo incompleto
+        private int splitFrames(int start) {
+            while (readBuffer.limit() - start >= 2) {
+                int length = readBuffer.getShort(start) & 0xFFFF;
+                if (readBuffer.limit() - start - 2 < length) break;
+                byte[] frame = new byte[length];
+                System.arraycopy(readBuffer.array(), start + 2, frame, 0, length);
+                frames.add(ByteBuffer.wrap(frame));
+                queued.incrementAndGet();
+                start += 2 + length;
+            }
+            return start;
+        }
+
+        // Al più un worker alla volta per connessione, così le risposte rispettano l'ordine delle richieste
+        private void schedule() {
+            if ((!requests.isEmpty() || !frames.isEmpty()) && busy.compareAndSet(false, true)) {
+                workers.execute(this::drain);
+            }
+        }
+
+        // Si ferma anche con troppe risposte non inviate: riprende da write() quando il client le legge
+        private void drain() {
+            try {
+                ByteBuffer frame;
+                while (pendingOutput < MAX_PENDING_OUTPUT && (frame = frames.poll()) != null) {
+                    dequeued();
+                    enqueue(handler.handleBinary(frame));
+                }
+                String line;
+                while (!closeAfterWrite && pendingOutput < MAX_PENDING_OUTPUT && (line = requests.poll()) != null) {
+                    dequeued();
+                    System.out.println("Ricevuto: " + line);
+                    try {
+                        if (!handler.handleRequest(line, out)) {
+                            closeAfterWrite = true;
+                            enqueue(ByteBuffer.allocate(0));
+                        }
+                    } catch (RuntimeException e) {
+                        System.err.println("Errore nella gestione della richiesta: " + e);
+                        out.println(Error.getBadRequestResponse());
+                    }
+                }
+            } finally {
+                busy.set(false);
+            }
+            if (pendingOutput < MAX_PENDING_OUTPUT) schedule();
+        }
+
+        // Una richiesta tolta dalla coda: se la lettura è sospesa e le code sono scese, il selector la riprende
+        private void dequeued() {
+            if (queued.decrementAndGet() <= MAX_QUEUED_REQUESTS / 2 && readPaused) {
+                requestUpdate();
+            }
+        }
+
+        /* Accoda una risposta e chiede al selector di abilitare la scrittura */
+        void enqueue(ByteBuffer buffer) {
+            synchronized (responses) {
+                responses.add(buffer);
+                pendingOutput += buffer.remaining();
+            }
+            requestUpdate();
+        }
+
+        void write() throws IOException {
+            synchronized (responses) {
+                ByteBuffer buffer;
+                while ((buffer = responses.peek()) != null) {
+                    int written = channel.write(buffer);
+                    pendingOutput -= written;
+                    if (buffer.hasRemaining()) return; // Socket pieno: si riprova al prossimo OP_WRITE
+                    responses.poll();
+                }
+                updateInterest();
+            }
+            if (closeAfterWrite) {
+                close(key);
+                return;
+            }
+            schedule(); // Il worker può essersi fermato per troppe risposte in attesa
+        }
+    }
+
+    // Writer che trasforma ogni flush (println con autoflush) in un buffer da inviare
+    private static final class ResponseWriter extends Writer {
+        private final Connection connection;
+        private final StringBuilder pending = new StringBuilder();
+
+        ResponseWriter(Connection connection) {
+            this.connection = connection;
+        }
+
+        @Override
+        public void write(char[] chars, int off, int len) {
+            pending.append(chars, off, len);
+        }
+
+        @Override
+        public void flush() {
+            if (pending.length() == 0) return;
+            connection.enqueue(ByteBuffer.wrap(pending.toString().getBytes(StandardCharsets.UTF_8)));
+            pending.setLength(0);
+        }
+
+        @Override
+        public void close() {
+            flush();
+        }
+    }
+}
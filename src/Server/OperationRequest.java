@@ -1,16 +1,36 @@
 package Server;
 
-import java.util.Map;
-
+/*
+ * Richiesta del client già decodificata: ogni operazione ha la sua sottoclasse con campi tipizzati
+ * (AuthRequest, OrderRequest, CancelRequest, ...), costruita da RequestDecoder
+ */
 public class OperationRequest {
-    private String operation;
-    private Map<String, Object> values;  // oppure un'altra struttura se hai requisiti specifici
+    private final String operation;
+    private final String username;
+    private long requestId = -1; // Id di correlazione scelto dal client, -1 se assente
+
+    public OperationRequest(String operation, String username) {
+        this.operation = operation;
+        this.username = username;
+    }
 
     public String getOperation() {
         return operation;
     }
 
-    public Map<String, Object> getValues() {
-        return values;
+    public String getUsername() {
+        return username;
+    }
+
+    public long getRequestId() {
+        return requestId;
+    }
+
+    public boolean hasRequestId() {
+        return requestId >= 0;
+    }
+
+    void setRequestId(long requestId) {
+        this.requestId = requestId;
     }
 }
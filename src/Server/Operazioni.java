@@ -1,13 +1,18 @@
 package Server;
 
+import CommonClass.CandleStore;
 import CommonClass.CompraVendita;
+import CommonClass.HistoryIndex;
+import CommonClass.MetricTimer;
+import CommonClass.Metrics;
+import CommonClass.OrderJournal;
+import CommonClass.UdpNotifier;
 import com.google.gson.Gson;
-import com.google.gson.GsonBuilder;
-import com.google.gson.reflect.TypeToken;
 import java.io.*;
-import java.lang.reflect.Type;
+import java.nio.charset.StandardCharsets;
 import java.util.*;
 import java.util.List;
+import java.util.concurrent.CompletionException;
 
 
 import java.time.LocalDate;
@@ -15,87 +20,45 @@ import java.time.LocalDate;
 
 public class Operazioni {
 
-    // File degli utenti e lock per la sincronizzazione
-    private static final File usersPath = new File("src/Document/Users.json");
-    private static final Object usersLock = new Object();
-
-    // File degli ordini e lock per la sincronizzazione
-    private static final File ordersPath = new File("src/Document/Orders.json");
-    private static final Object ordersLock = new Object();
-
-    // Metodi per collegare l'ordine singolo ad un ID utente
-    private static final File userOrderPath = new File("src/Document/UserOrder.json");
-    private static final Object userOrderLock = new Object();
+    private static final int MAX_BATCH = 1000; // Ordini massimi in una richiesta batchorders
+    private static final int DEFAULT_DEPTH = 10; // Livelli per lato di getorderbook se non indicati
+    private static final int HISTORY_PAGE = 1000; // Ordini massimi in una pagina di storico
+    private static final int DEFAULT_CANDLES = 100; // Barre restituite da getcandles se non indicato
+    private static final int HISTORY_CHUNK = 100; // Ordini per riga della risposta history
+    private static final Gson historyGson = new Gson();
+    private static final MetricTimer historyReadTimer = Metrics.timer("io.history.read");
 
     /**
-     * Registra utente dentro al file Json
-     * @param values
+     * Registra utente nell'anagrafica (persistita su file Json)
+     * @param request
      * @param out
      */
-    public static void Register(Map<String, Object> values, PrintWriter out) {
-        String username = (String) values.get("username");
-        String password = (String) values.get("password");
+    public static void Register(AuthRequest request, PrintWriter out) {
+        String username = request.getUsername();
+        String password = request.getPassword();
+
+        if (password == null || password.isEmpty()) {
+            out.println(Error.getRegistrationErrorResponse(101));
+            return;
+        }
+        // Lo username finisce nel journal con una lunghezza a 16 bit: oltre il limite non si registra
+        if (username.getBytes(StandardCharsets.UTF_8).length > OrderJournal.MAX_USERNAME_BYTES) {
+            out.println(Error.getRegistrationErrorResponse(103));
+            return;
+        }
 
         // Genera un salt e calcola l'hash della password
         String salt = HashUtils.generateSalt(16);
         String passwordHash = HashUtils.computeSHA256Hash(password, salt);
 
-        Gson gson = new GsonBuilder().setPrettyPrinting().create();
-        List<Map<String, String>> users;
-
-        synchronized (usersLock) {
-            // Legge la lista degli utenti dal file
-            if (usersPath.exists()) {
-                try (FileReader reader = new FileReader(usersPath)) {
-                    Type listType = new TypeToken<List<Map<String, String>>>() {}.getType();
-                    users = gson.fromJson(reader, listType);
-                    if (users == null) {
-                        users = new ArrayList<>();
-                    }
-                } catch (IOException e) {
-                    String errorResponse = Error.getRegistrationErrorResponse(103);
-                    System.out.println("Risposta inviata al client: " + errorResponse);
-                    out.println(errorResponse);
-                    out.flush();
-                    return;
-                }
-            } else {
-                // Se il file non esiste, restituisce un errore
-                String errorResponse = Error.getRegistrationErrorResponse(103);
-                System.out.println("Risposta inviata al client: " + errorResponse);
-                out.println(errorResponse);
-                out.flush();
-                return;
-            }
-
-            // Controlla se l'username è già presente (case-insensitive)
-            for (Map<String, String> user : users) {
-                if (user.get("username") != null && user.get("username").equalsIgnoreCase(username)) {
-                    String errorResponse = Error.getRegistrationErrorResponse(102);
-                    System.out.println("Risposta inviata al client: " + errorResponse);
-                    out.println(errorResponse);
-                    out.flush();
-                    return;
-                }
-            }
-
-            // Crea il nuovo utente e lo aggiunge
-            Map<String, String> newUser = new HashMap<>();
-            newUser.put("username", username);
-            newUser.put("passwordHash", passwordHash);
-            newUser.put("salt", salt);
-            users.add(newUser);
-
-            // Scrive la lista aggiornata nel file JSON
-            try (FileWriter writer = new FileWriter(usersPath)) {
-                gson.toJson(users, writer);
-            } catch (IOException e) {
-                String errorResponse = Error.getRegistrationErrorResponse(103);
-                System.out.println("Risposta inviata al client: " + errorResponse);
-                out.println(errorResponse);
-                out.flush();
-                return;
-            }
+        // Controlla e inserisce l'username (case-insensitive) nell'anagrafica in memoria:
+        // la scrittura su Users.json avviene in batch dal thread di write-behind
+        if (!UserDirectory.register(username, passwordHash, salt)) {
+            String errorResponse = Error.getRegistrationErrorResponse(102);
+            System.out.println("Risposta inviata al client: " + errorResponse);
+            out.println(errorResponse);
+            out.flush();
+            return;
         }
 
         // Restituisce OK (codice 100)
@@ -108,326 +71,216 @@ public class Operazioni {
 
     /**
      * Esegue il Login di un utente
-     * @param values
+     * @param request
      * @param out
+     * @param notifier notifiche UDP, se attive la risposta porta il token per registrarsi ("udpToken")
      * @return
      */
-    public static boolean Login(Map<String, Object> values, PrintWriter out) {
-        String username = (String) values.get("username");
-        String password = (String) values.get("password");
+    public static boolean Login(AuthRequest request, PrintWriter out, UdpNotifier notifier) {
+        int code = authenticate(request.getUsername(), request.getPassword());
+        if (code == 100 && notifier != null) {
+            String token = notifier.issueToken(request.getUsername());
+            out.println("{\"response\": 100, \"errorMessage\": \"OK\", \"udpToken\": \"" + token + "\"}");
+        } else {
+            out.println(Error.getRegistrationErrorResponse(code));
+        }
+        return code == 100;
+    }
 
+    /**
+     * Verifica le credenziali e, se corrette, crea la sessione (usato sia da JSON che dal protocollo binario)
+     * @return 100 login riuscito, 101 credenziali errate, 102 utente già loggato, 10 dati mancanti
+     */
+    public static int authenticate(String username, String password) {
         if (username == null || password == null || username.isEmpty() || password.isEmpty()) {
-            out.println(Error.getRegistrationErrorResponse(10));
-            return false;
+            return 10;
         }
 
         if (SessionManager.isLoggedIn(username)) {
-            out.println(Error.getRegistrationErrorResponse(102));
-            return false;
+            return 102;
         }
 
-        Gson gson = new GsonBuilder().setPrettyPrinting().create();
-        List<Map<String, String>> users;
-
-        try (Reader reader = new FileReader(usersPath)) {
-            Type listType = new TypeToken<List<Map<String, String>>>() {}.getType();
-            users = gson.fromJson(reader, listType);
-            if (users == null) {
-                users = new ArrayList<>();
-            }
-        } catch (IOException e) {
-            System.err.println("Errore nel caricamento degli utenti: " + e.getMessage());
-            out.println(Error.getInternalServerErrorResponse());
-            return false;
+        if (checkPassword(username, password)) {
+            // Login riuscito, aggiungere la sessione
+            SessionManager.addSession(username, new Session(username, null));
+            return 100;
         }
 
-        // Cerca l'utente nel JSON
-        for (Map<String, String> user : users) {
-            if (user.get("username").equals(username)) {
-                String storedSalt = user.get("salt");
-                String storedHash = user.get("passwordHash");
-
-                // Hash della password inserita con il salt memorizzato
-                String computedHash = HashUtils.computeSHA256Hash(password, storedSalt);
+        // Se nessuna corrispondenza trovata
+        return 101;
+    }
 
-                if (computedHash.equals(storedHash)) {
-                    // Login riuscito, aggiungere la sessione
-                    SessionManager.addSession(username, new Session(username, null));
-                    out.println(Error.getRegistrationErrorResponse(100));
-                    return true;
-                }
-            }
+    /* Verifica username e password sull'anagrafica in memoria, senza toccare le sessioni */
+    public static boolean checkPassword(String username, String password) {
+        if (username == null || password == null) {
+            return false;
         }
-
-        // Se nessuna corrispondenza trovata
-        out.println(Error.getRegistrationErrorResponse(101));
-        return false;
+        Map<String, String> user = UserDirectory.get(username);
+        if (user == null || !user.get("username").equals(username)) {
+            return false;
+        }
+        // Hash della password inserita con il salt memorizzato
+        String computedHash = HashUtils.computeSHA256Hash(password, user.get("salt"));
+        return computedHash.equals(user.get("passwordHash"));
     }
 
     /**
      *
-     * @param values
+     * @param request
      * @param out
      */
-    public static void LimitOrder(Map<String, Object> values, PrintWriter out, CompraVendita compraVendita) {
-        // Estrazione dei valori dalla richiesta
-        String username = (String) values.get("username");
-        String side = (String) values.get("side");
-        int size = ((Number) values.get("size")).intValue();
-        int orderId = ((Number) values.get("orderId")).intValue();
-        float price = ((Number) values.get("price")).floatValue();
-
-        // Ottieni la data corrente in formato MMYYYY
-        LocalDate currentDate = LocalDate.now();
-        String date = String.format("%02d", currentDate.getMonthValue()) + currentDate.getYear();
-
-        System.out.println("📌 Data formattata: " + date);
-
-        Gson gson = new GsonBuilder().setPrettyPrinting().create();
-        List<Map<String, String>> orders = new ArrayList<>();
-
-        Order order;
-        synchronized (ordersLock) {
-            if (ordersPath.exists()) {
-                try (FileReader reader = new FileReader(ordersPath)) {
-                    Type listType = new TypeToken<List<Map<String, String>>>() {
-                    }.getType();
-                    orders = gson.fromJson(reader, listType);
-                    if (orders == null) {
-                        orders = new ArrayList<>();
-                    }
-                } catch (IOException e) {
-                    System.err.println("❌ Errore nella lettura del file JSON: " + e.getMessage());
-                    out.println(Error.getRegistrationErrorResponse(103));
-                    return;
-                }
-            } else {
-                System.err.println("⚠️ Il file degli ordini non esiste.");
-                out.println(Error.getRegistrationErrorResponse(103));
-                return;
-            }
-
-            // **Creazione dell'ordine**
-            order = new Order();
-            order.setOrderId(orderId);
-            order.setUserId(username); // Se username è l'ID utente
-            order.setType(side);
-            order.setOrderType("limit");
-            order.setSize(size);
-            order.setPrice((int) price); // Convertito in int per evitare problemi
-
-            // **Salva l'ordine nel JSON**
-            Map<String, String> newOrder = new HashMap<>();
-            newOrder.put("username", username);
-            newOrder.put("type", "Limit");
-            newOrder.put("side", side);
-            newOrder.put("size", String.valueOf(size));
-            newOrder.put("price", String.valueOf(price));
-            newOrder.put("orderID", String.valueOf(orderId));
-            newOrder.put("date", date);
-            orders.add(newOrder);
-
-            try (FileWriter writer = new FileWriter(ordersPath)) {
-                gson.toJson(orders, writer);
-                System.out.println("✅ Ordine salvato con successo.");
-            } catch (IOException e) {
-                System.err.println("❌ Errore nella scrittura del file JSON: " + e.getMessage());
-                out.println(Error.getRegistrationErrorResponse(103));
-                return;
-            }
-        }
-
-        // **Aggiunta dell'ordine in CompraVendita e Matching**
-        Set<Integer> usersToNotify = compraVendita.addOrder(order);
-        System.out.println("📢 Utenti da notificare: " + usersToNotify);
-
-        // Collegamento aggiornato username e orderID
-        updateUserOrderMapping(username, orderId);
-
-        // **Invio della Notifica UDP agli utenti coinvolti**
-        if (!usersToNotify.isEmpty()) {
-            compraVendita.MessageUDP(usersToNotify);
-        }
-
-        // **Risposta di successo**
-        out.println(Error.getRegistrationErrorResponse(100));
+    public static void LimitOrder(OrderRequest request, PrintWriter out, CompraVendita compraVendita) {
+        // **Creazione dell'ordine** (il decoder ha già convertito il prezzo in int)
+        inserisciOrdine(creaOrdine(request), out, compraVendita);
     }
 
 
     /**
      *
-     * @param values
+     * @param request
      * @param out
      */
-    public static void MarketOrder(Map<String, Object> values, PrintWriter out, CompraVendita compraVendita) {
-        String username = (String) values.get("username");
-        int orderId = ((Number) values.get("orderId")).intValue();
-        String side = (String) values.get("side");
-        int size = ((Number) values.get("size")).intValue();
-
-        // Data corrente in formato MMYYYY
-        LocalDate currentDate = LocalDate.now();
-        String date = String.format("%02d", currentDate.getMonthValue()) + currentDate.getYear();
-
-        Gson gson = new GsonBuilder().setPrettyPrinting().create();
-        List<Map<String, String>> orders = new ArrayList<>();
-
-        synchronized (ordersLock) {
-            if (ordersPath.exists()) {
-                try (FileReader reader = new FileReader(ordersPath)) {
-                    Type listType = new TypeToken<List<Map<String, String>>>() {}.getType();
-                    orders = gson.fromJson(reader, listType);
-                    if (orders == null) {
-                        orders = new ArrayList<>();
-                    }
-                } catch (IOException e) {
-                    System.err.println("Errore nella lettura del file JSON: " + e.getMessage());
-                    out.println(Error.getRegistrationErrorResponse(103));
-                    return;
-                }
-            } else {
-                out.println(Error.getRegistrationErrorResponse(103));
-                return;
-            }
+    public static void MarketOrder(OrderRequest request, PrintWriter out, CompraVendita compraVendita) {
+        // **CREAZIONE E INSERIMENTO NEL BOOK DI COMPRAVENDITA**
+        inserisciOrdine(creaOrdine(request), out, compraVendita);
+    }
 
-            // Salvataggio anche sul file JSON
-            Map<String, String> newOrder = new HashMap<>();
-            newOrder.put("username", username);
-            newOrder.put("type", "market");
-            newOrder.put("side", side);
-            newOrder.put("size", String.valueOf(size));
-            newOrder.put("orderID", String.valueOf(orderId));
-            newOrder.put("date", date);
-            orders.add(newOrder);
-
-            try (FileWriter writer = new FileWriter(ordersPath)) {
-                gson.toJson(orders, writer);
-                System.out.println("Ordine salvato con successo.");
-            } catch (IOException e) {
-                System.err.println("Errore nella scrittura del file JSON: " + e.getMessage());
-                out.println(Error.getRegistrationErrorResponse(103));
-                return;
-            }
-        }
 
+    /**
+     *
+     * @param request
+     * @param out
+     */
+    public static void StopOrder(OrderRequest request, PrintWriter out, CompraVendita compraVendita) {
         // **CREAZIONE E INSERIMENTO NEL BOOK DI COMPRAVENDITA**
-        Order order = new Order();
-        order.setOrderId(orderId);
-        order.setUserId(username);
-        order.setType(side);
-        order.setOrderType("market");
-        order.setSize(size);
-
-        Set<Integer> usersToNotify = compraVendita.addOrder(order);
-        System.out.println("📢 Utenti da notificare: " + usersToNotify);
-
-        // Collegamento aggiornato username e orderID
-        updateUserOrderMapping(username, orderId);
+        inserisciOrdine(creaOrdine(request), out, compraVendita);
+    }
 
-        if (!usersToNotify.isEmpty()) {
-            compraVendita.MessageUDP(usersToNotify);
+    /**
+     * Costruisce l'ordine dalla richiesta (limitorder, marketorder o stoporder)
+     * @return null se tipo, lato, quantità o prezzo non sono validi
+     */
+    private static Order creaOrdine(OrderRequest request) {
+        String side = request.getSide();
+        if (!"bid".equals(side) && !"ask".equals(side) || request.getSize() <= 0) {
+            return null;
+        }
+        long now = System.currentTimeMillis();
+        switch (request.getOperation()) {
+            case "limitorder":
+                if (request.getPrice() <= 0) return null;
+                return new Order(request.getOrderId(), request.getUsername(), side, "limit", request.getSize(), request.getPrice(), 0, now);
+            case "marketorder":
+                return new Order(request.getOrderId(), request.getUsername(), side, "market", request.getSize(), 0, 0, now);
+            case "stoporder":
+                if (request.getStopPrice() <= 0) return null;
+                return new Order(request.getOrderId(), request.getUsername(), side, "stop", request.getSize(), 0, request.getStopPrice(), now);
+            default:
+                return null;
         }
+    }
 
-        out.println(Error.getRegistrationErrorResponse(100));
+    /**
+     * Inserisce l'ordine e risponde al client in JSON
+     * @param order l'ordine da inserire, null se la richiesta non era valida
+     * @param out PrintWriter per inviare la risposta al client.
+     * @param compraVendita il book degli ordini
+     */
+    private static void inserisciOrdine(Order order, PrintWriter out, CompraVendita compraVendita) {
+        if (order == null) {
+            out.println(Error.getBadRequestResponse());
+            return;
+        }
+        int code = eseguiOrdine(order, compraVendita);
+        out.println(code == 409 ? Error.getDuplicateOrderResponse() : Error.getRegistrationErrorResponse(code));
     }
 
+    /**
+     * Passa l'ordine a CompraVendita, che lo registra nel journal (con lo username) prima di applicarlo al book;
+     * il journal è anche l'unico collegamento utente-ordine, quindi non c'è altro da scrivere (le notifiche UDP
+     * delle esecuzioni vengono accodate dal motore e inviate dal notificatore, senza far attendere la risposta)
+     * @return 100 se l'ordine è stato accettato, 409 se l'orderId è già in uso, 103 in caso di errore
+     */
+    public static int eseguiOrdine(Order order, CompraVendita compraVendita) {
+        Set<Integer> usersToNotify;
+        try {
+            usersToNotify = compraVendita.submitOrder(order).join();
+        } catch (CompletionException e) {
+            System.err.println("❌ Errore nella registrazione dell'ordine: " + e.getCause());
+            return 103;
+        }
+        if (usersToNotify == null) {
+            return 409;
+        }
+        System.out.println("📢 Utenti da notificare: " + usersToNotify);
+        return 100;
+    }
 
     /**
-     *
-     * @param values
+     * Inserisce più ordini con un solo passaggio del motore: una scrittura sul journal e un matching.
+     * Risponde con l'esito di ogni ordine, nello stesso ordine della richiesta (409 se l'orderId è già in uso)
+     * @param request
      * @param out
      */
-    public static void StopOrder(Map<String, Object> values, PrintWriter out, CompraVendita compraVendita) {
-        String username = (String) values.get("username");
-        String side = (String) values.get("side");
-        int size = ((Number) values.get("size")).intValue();
-        int orderId = ((Number) values.get("orderId")).intValue();
-        float stopPrice = ((Number) values.get("stopPrice")).floatValue();
-
-        // Data corrente in formato MMYYYY
-        LocalDate currentDate = LocalDate.now();
-        String date = String.format("%02d", currentDate.getMonthValue()) + currentDate.getYear();
-
-        Gson gson = new GsonBuilder().setPrettyPrinting().create();
-        List<Map<String, String>> orders = new ArrayList<>();
-
-        synchronized (ordersLock) {
-            if (ordersPath.exists()) {
-                try (FileReader reader = new FileReader(ordersPath)) {
-                    Type listType = new TypeToken<List<Map<String, String>>>() {}.getType();
-                    orders = gson.fromJson(reader, listType);
-                    if (orders == null) {
-                        orders = new ArrayList<>();
-                    }
-                } catch (IOException e) {
-                    System.err.println("Errore nella lettura del file JSON: " + e.getMessage());
-                    out.println(Error.getRegistrationErrorResponse(103));
-                    return;
-                }
+    public static void BatchOrders(BatchRequest request, PrintWriter out, CompraVendita compraVendita) {
+        List<OrderRequest> requests = request.getOrders();
+        if (requests == null || requests.isEmpty() || requests.size() > MAX_BATCH) {
+            out.println(Error.getBadRequestResponse());
+            return;
+        }
+
+        int[] codes = new int[requests.size()];
+        List<Order> orders = new ArrayList<>(requests.size());
+        for (int i = 0; i < codes.length; i++) {
+            Order order = creaOrdine(requests.get(i));
+            if (order == null) {
+                codes[i] = 400;
             } else {
-                out.println(Error.getRegistrationErrorResponse(103));
-                return;
+                orders.add(order);
             }
+        }
 
-            // Salvataggio anche nel file JSON
-            Map<String, String> newOrder = new HashMap<>();
-            newOrder.put("username", username);
-            newOrder.put("type", "stop");
-            newOrder.put("side", side);
-            newOrder.put("size", String.valueOf(size));
-            newOrder.put("price", String.valueOf(stopPrice));
-            newOrder.put("orderID", String.valueOf(orderId));
-            newOrder.put("date", date);
-            orders.add(newOrder);
-
-            try (FileWriter writer = new FileWriter(ordersPath)) {
-                gson.toJson(orders, writer);
-                System.out.println("Ordine salvato con successo.");
-            } catch (IOException e) {
-                System.err.println("Errore nella scrittura del file JSON: " + e.getMessage());
-                out.println(Error.getRegistrationErrorResponse(103));
-                return;
+        if (!orders.isEmpty()) {
+            boolean[] accepted;
+            try {
+                accepted = compraVendita.submitBatch(orders).join();
+            } catch (CompletionException e) {
+                System.err.println("❌ Errore nella registrazione del batch: " + e.getCause());
+                accepted = null;
+            }
+            for (int i = 0, next = 0; i < codes.length; i++) {
+                if (codes[i] != 0) continue;
+                int index = next++;
+                if (accepted == null) {
+                    codes[i] = 103;
+                } else {
+                    codes[i] = accepted[index] ? 100 : 409;
+                }
             }
         }
 
-        // **CREAZIONE E INSERIMENTO NEL BOOK DI COMPRAVENDITA**
-        Order order = new Order();
-        order.setOrderId(orderId);
-        order.setUserId(username);
-        order.setType(side);
-        order.setOrderType("stop");
-        order.setSize(size);
-        order.setStopPrice((int) stopPrice); // Convertito in int per compatibilità
-
-        Set<Integer> usersToNotify = compraVendita.addOrder(order);
-        System.out.println("📢 Utenti da notificare: " + usersToNotify);
-
-        // Collegamento aggiornato username e orderID
-        updateUserOrderMapping(username, orderId);
-
-        if (!usersToNotify.isEmpty()) {
-            compraVendita.MessageUDP(usersToNotify);
+        StringBuilder response = new StringBuilder("{\"response\": 100, \"results\": [");
+        for (int i = 0; i < codes.length; i++) {
+            if (i > 0) response.append(", ");
+            response.append("{\"orderId\": ").append(requests.get(i).getOrderId())
+                    .append(", \"response\": ").append(codes[i]).append('}');
         }
-
-        out.println(Error.getRegistrationErrorResponse(100));
+        out.println(response.append("]}").toString());
     }
 
     /**
-     *
-     * @param values Mappa contenente i parametri della richiesta, incluso il mese nel formato MMYYYY.
+     * Invia sulla connessione una pagina dello storico, divisa in righe da HISTORY_CHUNK ordini:
+     * {"response": 100, "orders": [...], "last": false} ... e infine una riga con "last": true
+     * e "nextCursor" (posizione della pagina successiva, -1 se lo storico è finito).
+     * Il server tiene in memoria solo gli offset della pagina e gli ordini di una riga
+     * @param request Richiesta con username, mese nel formato MMYYYY, cursore e dimensione della pagina.
      * @param out PrintWriter per inviare la risposta al client.
      */
-    public static void History(Map<String, Object> values, PrintWriter out, CompraVendita compraVendita) {
-        /* Leggo dal file di associazione tutti gli ordini relativi all'utente */
-
+    public static void History(HistoryRequest request, PrintWriter out, CompraVendita compraVendita) {
+        /* Leggo dal journal tutti gli ordini relativi all'utente */
 
-        if (values == null) {
-            out.println("{ \"response\": 400, \"errorMessage\": \"Dati di richiesta mancanti\" }");
-            return;
-        }
-
-        String month = (String) values.get("date");
-        String username = (String) values.get("username"); // Aggiunto il recupero dell'username
+        String month = request.getDate();
+        String username = request.getUsername();
 
         if (month == null || !month.matches("\\d{6}")) {
             out.println("{ \"response\": 400, \"errorMessage\": \"Formato mese non valido. Usa MMYYYY.\" }");
@@ -442,136 +295,194 @@ public class Operazioni {
         System.out.println("DEBUG: Mese ricevuto -> " + month);
         System.out.println("DEBUG: Username ricevuto -> " + username);
 
-        List<Map<String, Object>> filteredOrders = new ArrayList<>();
-
-        synchronized (ordersLock) {
-            File file = new File(String.valueOf(ordersPath));
-            if (!file.exists() || !file.canRead()) {
-                out.println("{ \"response\": 500, \"errorMessage\": \"File degli ordini non trovato o non accessibile.\" }");
-                return;
-            }
-
-            Gson gson = new GsonBuilder().setPrettyPrinting().create();
-            List<Map<String, Object>> completedOrders;
+        int cursor = Math.max(0, request.getCursor());
+        int limit = request.getLimit() > 0 ? Math.min(request.getLimit(), HISTORY_PAGE) : HISTORY_PAGE;
 
-            try (BufferedReader br = new BufferedReader(new FileReader(file))) {
-                completedOrders = gson.fromJson(br, new TypeToken<List<Map<String, Object>>>() {}.getType());
-                if (completedOrders == null) completedOrders = new ArrayList<>();
+        // L'indice dà gli offset dei soli record dell'utente nel mese: si leggono quelli e basta
+        long[] offsets;
+        try {
+            offsets = compraVendita.getHistoryIndex().lookup(username, month, cursor, limit + 1);
+        } catch (IOException e) {
+            e.printStackTrace();
+            out.println("{ \"response\": 500, \"errorMessage\": \"Errore nel recupero degli ordini.\" }");
+            return;
+        }
+        int count = Math.min(limit, offsets.length);
+        int nextCursor = offsets.length > limit ? cursor + limit : -1;
+
+        List<Map<String, String>> chunk = new ArrayList<>(HISTORY_CHUNK);
+        for (int from = 0; ; from += HISTORY_CHUNK) {
+            int to = Math.min(count, from + HISTORY_CHUNK);
+            chunk.clear();
+            long readStart = historyReadTimer.start();
+            try {
+                compraVendita.getJournal().read(offsets, from, to, entry -> {
+                    if (entry.getType() == OrderJournal.NEW) chunk.add(toHistoryRecord(entry.getOrder()));
+                });
+                historyReadTimer.stop(readStart);
             } catch (IOException e) {
                 e.printStackTrace();
                 out.println("{ \"response\": 500, \"errorMessage\": \"Errore nel recupero degli ordini.\" }");
                 return;
             }
-
-            // Filtra gli ordini per data e username
-            for (Map<String, Object> order : completedOrders) {
-                String orderDate = (String) order.get("date");
-                String orderUser = (String) order.get("username"); // Supponiamo che gli ordini abbiano il campo "username"
-
-                if (orderDate != null && orderDate.equals(month) && orderUser != null && orderUser.equals(username)) {
-                    filteredOrders.add(order);
-                }
+            boolean last = to >= count;
+            StringBuilder line = new StringBuilder("{\"response\": 100, \"orders\": ")
+                    .append(historyGson.toJson(chunk))
+                    .append(", \"last\": ").append(last);
+            if (last) {
+                line.append(", \"nextCursor\": ").append(nextCursor);
             }
+            out.println(line.append('}').toString());
+            if (last) break;
         }
+        out.flush();
+    }
 
-        // Scrittura dei risultati in un file per il client
-        String clientFileName = "history_" + username + ".json";
-        File clientFile = new File(clientFileName);
+    /**
+     * Profondità aggregata del book (prezzo, quantità totale, numero di ordini per livello).
+     * La risposta è servita dalla vista pubblicata da chi modifica il book, senza passare dal motore
+     * @param request Richiesta con il numero di livelli per lato (predefinito DEFAULT_DEPTH)
+     * @param out
+     */
+    public static void GetOrderBook(OrderBookRequest request, PrintWriter out, CompraVendita compraVendita) {
+        int depth = request.getDepth() > 0 ? request.getDepth() : DEFAULT_DEPTH;
+        out.println(compraVendita.getDepth().toJson(depth));
+    }
 
-        try (FileWriter writer = new FileWriter(clientFile)) {
-            Gson gson = new GsonBuilder().setPrettyPrinting().create();
-            gson.toJson(filteredOrders, writer);
-            System.out.println("DEBUG SERVER: File JSON creato -> " + clientFileName);
-        } catch (IOException e) {
-            e.printStackTrace();
-            out.println("{ \"response\": 500, \"errorMessage\": \"Errore nella scrittura del file.\" }");
+    /**
+     * Metriche del server: contatori, gauge e latenze per operazione (microsecondi)
+     * @param out
+     */
+    public static void Stats(PrintWriter out) {
+        out.println(Metrics.toJson());
+    }
+
+    /**
+     * Candele OHLCV di un timeframe lette dalla memoria, dalla più vecchia alla più recente
+     * @param request timeframe ("1s", "1m", "1h", "1d"), intervallo from/to in millisecondi (0 = senza limite)
+     *                e numero massimo di barre
+     * @param out
+     */
+    public static void GetCandles(CandleRequest request, PrintWriter out, CompraVendita compraVendita) {
+        int timeframe = CandleStore.timeframe(request.getTimeframe());
+        if (timeframe < 0 || request.getFrom() < 0 || request.getTo() < 0
+                || (request.getTo() > 0 && request.getTo() < request.getFrom())) {
+            out.println("{ \"response\": 400, \"errorMessage\": \"Timeframe o intervallo non validi. Usa 1s, 1m, 1h o 1d.\" }");
             return;
         }
+        long to = request.getTo() > 0 ? request.getTo() : Long.MAX_VALUE;
+        int limit = request.getLimit() > 0 ? request.getLimit() : DEFAULT_CANDLES;
+        out.println(compraVendita.getCandles().toJson(timeframe, request.getFrom(), to, limit));
+    }
 
-        // Avvisa il client che il file è pronto
-        out.println("{ \"response\": 100, \"file\": \"" + clientFileName + "\" }");
-        out.flush();
+    // Mese di un timestamp (in millisecondi) nel formato MMYYYY
+    private static String formatMonth(long timestamp) {
+        return HistoryIndex.month(timestamp);
+    }
+
+    // Voce dello storico nel formato atteso dal client
+    private static Map<String, String> toHistoryRecord(Order order) {
+        Map<String, String> record = new HashMap<>();
+        record.put("username", order.getUserId());
+        record.put("type", order.getOrderType());
+        record.put("side", order.getType());
+        record.put("size", String.valueOf(order.getSize()));
+        if ("limit".equals(order.getOrderType())) {
+            record.put("price", String.valueOf(order.getPrice()));
+        } else if ("stop".equals(order.getOrderType())) {
+            record.put("price", String.valueOf(order.getStopPrice()));
+        }
+        record.put("orderID", String.valueOf(order.getOrderId()));
+        record.put("date", formatMonth(order.getTimestamp()));
+        return record;
     }
 
     /**
      * Cancella un ordine specificato da un utente.
-     * @param values I parametri della richiesta, che contengono l'ID dell'utente e l'ID dell'ordine da cancellare.
+     * @param request La richiesta, che contiene l'ID dell'utente e l'ID dell'ordine da cancellare.
      * @param out Il PrintWriter per inviare la risposta al client.
      * @param compraVendita Un'istanza della classe CompraVendita per la gestione degli ordini.
      */
-    public static void CancelOrder(Map<String, Object> values, PrintWriter out, CompraVendita compraVendita) {
-        // Estrai i parametri dalla richiesta
-        String username = (String) values.get("username");
-        int orderId = ((Number) values.get("orderId")).intValue();
-
-        Gson gson = new GsonBuilder().setPrettyPrinting().create();
-        List<Map<String, String>> orders = new ArrayList<>();
-        boolean orderFound = false;
-
-        synchronized (ordersLock) {
-            if (ordersPath.exists()) {
-                try (FileReader reader = new FileReader(ordersPath)) {
-                    Type listType = new TypeToken<List<Map<String, String>>>() {}.getType();
-                    orders = gson.fromJson(reader, listType);
-                    if (orders == null) {
-                        orders = new ArrayList<>();
-                    }
-                } catch (IOException e) {
-                    System.err.println("Errore nella lettura del file JSON: " + e.getMessage());
-                    out.println(Error.getRegistrationErrorResponse(103));
-                    return;
-                }
-            } else {
-                System.err.println("Il file degli ordini non esiste.");
+    public static void CancelOrder(CancelRequest request, PrintWriter out, CompraVendita compraVendita) {
+        switch (cancellaOrdine(request.getUsername(), request.getOrderId(), compraVendita)) {
+            case 100:
+                // Invia risposta di successo
+                out.println("{ \"response\": 100, \"message\": \"Ordine cancellato con successo.\" }");
+                break;
+            case 404:
+                out.println("{ \"response\": 404, \"errorMessage\": \"Ordine non trovato.\" }");
+                break;
+            default:
                 out.println(Error.getRegistrationErrorResponse(103));
-                return;
-            }
+        }
+    }
 
-            // Cerca e rimuovi l'ordine
-            Iterator<Map<String, String>> iterator = orders.iterator();
-            while (iterator.hasNext()) {
-                Map<String, String> order = iterator.next();
-                String orderUser = order.get("username");
-                int orderIdFromFile = Integer.parseInt(order.get("orderID"));
-
-                // Controlla se l'ordine appartiene all'utente e ha lo stesso ID
-                if (orderUser != null && orderUser.equals(username) && orderIdFromFile == orderId) {
-                    iterator.remove();  // Rimuovi l'ordine
-                    orderFound = true;
-                    break;
-                }
+    /**
+     * Cancella l'ordine di un utente togliendolo dal book
+     * @return 100 se cancellato, 404 se inesistente/di un altro utente/già eseguito, 103 in caso di errore
+     */
+    public static int cancellaOrdine(String username, int orderId, CompraVendita compraVendita) {
+        // Passa dal motore come gli inserimenti: l'unico accesso a file è l'append sul journal
+        try {
+            int code = compraVendita.submitCancel(username, orderId).join();
+            if (code == 100) {
+                System.out.println("Ordine cancellato con successo.");
             }
+            return code;
+        } catch (CompletionException e) {
+            System.err.println("Errore nella scrittura del journal: " + e.getCause());
+            return 103;
+        }
+    }
 
-            if (orderFound) {
-                // Riscrivi il file con la lista aggiornata degli ordini
-                try (FileWriter writer = new FileWriter(ordersPath)) {
-                    gson.toJson(orders, writer);
-                    System.out.println("Ordine cancellato con successo.");
-                } catch (IOException e) {
-                    System.err.println("Errore nella scrittura del file JSON: " + e.getMessage());
-                    out.println(Error.getRegistrationErrorResponse(103));
-                    return;
-                }
-            } else {
-                // Se l'ordine non è stato trovato
+    /**
+     * Modifica quantità e/o prezzo di un limit order aperto senza perdere la quotazione
+     * (al posto di cancelorder + limitorder)
+     * @param request orderId, size e price nuovi (0 = invariato)
+     * @param out
+     */
+    public static void ModifyOrder(OrderRequest request, PrintWriter out, CompraVendita compraVendita) {
+        switch (modificaOrdine(request.getUsername(), request.getOrderId(), request.getSize(), request.getPrice(), compraVendita)) {
+            case 100:
+                out.println(Error.getRegistrationErrorResponse(100));
+                break;
+            case 400:
+                out.println(Error.getBadRequestResponse());
+                break;
+            case 404:
                 out.println("{ \"response\": 404, \"errorMessage\": \"Ordine non trovato.\" }");
-                return;
-            }
+                break;
+            default:
+                out.println(Error.getRegistrationErrorResponse(103));
         }
-
-        // Invia risposta di successo
-        out.println("{ \"response\": 100, \"message\": \"Ordine cancellato con successo.\" }");
     }
 
+    /**
+     * Modifica l'ordine di un utente
+     * @return 100 se modificato, 400 se i valori non sono validi, 404 se l'ordine non è un limit aperto dell'utente, 103 in caso di errore
+     */
+    public static int modificaOrdine(String username, int orderId, int size, int price, CompraVendita compraVendita) {
+        if (size < 0 || price < 0 || (size == 0 && price == 0)) {
+            return 400;
+        }
+        Set<Integer> usersToNotify;
+        try {
+            usersToNotify = compraVendita.submitModify(username, orderId, size, price).join();
+        } catch (CompletionException e) {
+            System.err.println("❌ Errore nella modifica dell'ordine: " + e.getCause());
+            return 103;
+        }
+        return usersToNotify == null ? 404 : 100;
+    }
 
     /**
-     * @param values
+     * @param request
      * @param out
      */
-    public static void UpdateCredentials(Map<String, Object> values, PrintWriter out) {
-        String username = (String) values.get("username");
-        String current_password = (String) values.get("currentPassword");
-        String new_password = (String) values.get("newPassword");
+    public static void UpdateCredentials(UpdateCredentialsRequest request, PrintWriter out) {
+        String username = request.getUsername();
+        String current_password = request.getCurrentPassword();
+        String new_password = request.getNewPassword();
 
         if (username == null || current_password == null || new_password == null ||
                 username.isEmpty() || current_password.isEmpty() || new_password.isEmpty()) {
@@ -579,102 +490,28 @@ public class Operazioni {
             return;
         }
 
-        Gson gson = new GsonBuilder().setPrettyPrinting().create();
-        List<Map<String, String>> users;
-
-        synchronized (usersLock) {
-            // Caricamento degli utenti dal file JSON
-            try (Reader reader = new FileReader(usersPath)) {
-                Type listType = new TypeToken<List<Map<String, String>>>() {
-                }.getType();
-                users = gson.fromJson(reader, listType);
-                if (users == null) {
-                    users = new ArrayList<>();
-                }
-            } catch (IOException e) {
-                System.err.println("Errore nella lettura del file utenti: " + e.getMessage());
-                out.println(Error.getInternalServerErrorResponse());
-                return;
-            }
-
-            // Cerca l'utente nel JSON
-            boolean userFound = false;
-            for (Map<String, String> user : users) {
-                if (user.get("username").equals(username)) {
-                    userFound = true;
-                    String storedSalt = user.get("salt");
-                    String storedHash = user.get("passwordHash");
-
-                    // Verifica la password attuale
-                    String computedHash = HashUtils.computeSHA256Hash(current_password, storedSalt);
-                    if (!computedHash.equals(storedHash)) {
-                        out.println(Error.getUnauthorizedResponse());
-                        return;
-                    }
-
-                    // Genera un nuovo salt e calcola l'hash della nuova password
-                    String newSalt = HashUtils.generateSalt(16);
-                    String newPasswordHash = HashUtils.computeSHA256Hash(new_password, newSalt);
-
-                    // Aggiorna i dati dell'utente
-                    user.put("passwordHash", newPasswordHash);
-                    user.put("salt", newSalt);
-
-                    break;
-                }
-            }
-
-            if (!userFound) {
-                out.println(Error.getNotUser());
-                return;
-            }
-
-            // Salva il file aggiornato
-            try (Writer writer = new FileWriter(usersPath)) {
-                gson.toJson(users, writer);
-            } catch (IOException e) {
-                System.err.println("Errore nella scrittura del file utenti: " + e.getMessage());
-                out.println(Error.getInternalServerErrorResponse());
-                return;
-            }
+        // Cerca l'utente nell'anagrafica in memoria
+        Map<String, String> user = UserDirectory.get(username);
+        if (user == null || !user.get("username").equals(username)) {
+            out.println(Error.getNotUser());
+            return;
         }
-        out.println(Error.getRegistrationErrorResponse(100));
-    }
-
 
+        // Verifica la password attuale
+        String computedHash = HashUtils.computeSHA256Hash(current_password, user.get("salt"));
+        if (!computedHash.equals(user.get("passwordHash"))) {
+            out.println(Error.getUnauthorizedResponse());
+            return;
+        }
 
-    // Mappa che collega ogni ordine di un cliente ad un ID
-    public static void updateUserOrderMapping(String username, int orderId) {
-        Gson gson = new GsonBuilder().setPrettyPrinting().create();
-        Map<String, List<Integer>> userOrders;
-
-        synchronized (userOrderLock) {
-            // Leggi il file
-            if (userOrderPath.exists()) {
-                try (FileReader reader = new FileReader(userOrderPath)) {
-                    Type mapType = new TypeToken<Map<String, List<Integer>>>() {}.getType();
-                    userOrders = gson.fromJson(reader, mapType);
-                    if (userOrders == null) {
-                        userOrders = new HashMap<>();
-                    }
-                } catch (IOException e) {
-                    System.err.println("Errore lettura UserOrder.json: " + e.getMessage());
-                    userOrders = new HashMap<>();
-                }
-            } else {
-                userOrders = new HashMap<>();
-            }
+        // Genera un nuovo salt e calcola l'hash della nuova password
+        String newSalt = HashUtils.generateSalt(16);
+        String newPasswordHash = HashUtils.computeSHA256Hash(new_password, newSalt);
 
-            // Aggiungi l'ordine all'utente
-            userOrders.computeIfAbsent(username, k -> new ArrayList<>()).add(orderId);
+        // Aggiorna i dati dell'utente (persistiti dal thread di write-behind)
+        UserDirectory.updatePassword(username, newPasswordHash, newSalt);
 
-            // Scrivi di nuovo il file
-            try (FileWriter writer = new FileWriter(userOrderPath)) {
-                gson.toJson(userOrders, writer);
-            } catch (IOException e) {
-                System.err.println("Errore scrittura UserOrder.json: " + e.getMessage());
-            }
-        }
+        out.println(Error.getRegistrationErrorResponse(100));
     }
 
 }
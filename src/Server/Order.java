@@ -96,30 +96,4 @@ public class Order {
     public void setTimestamp(long timestamp) {
         this.timestamp = timestamp;
     }
-
-    // Ottieni l'ID del compratore (solo per ordini bid)
-    public Integer getBuyerId() {
-        if ("bid".equalsIgnoreCase(this.type)) {
-            try {
-                return Integer.parseInt(this.userId);
-            } catch (NumberFormatException e) {
-                System.err.println("⚠️ Errore parsing Buyer ID: " + this.userId);
-                return null;
-            }
-        }
-        return null;
-    }
-
-    // Ottieni l'ID del venditore (solo per ordini ask)
-    public Integer getSellerId() {
-        if ("ask".equalsIgnoreCase(this.type)) {
-            try {
-                return Integer.parseInt(this.userId);
-            } catch (NumberFormatException e) {
-                System.err.println("⚠️ Errore parsing Seller ID: " + this.userId);
-                return null;
-            }
-        }
-        return null;
-    }
 }
@@ -0,0 +1,15 @@
+package Server;
+
+/* Richiesta della profondità del book: primi depth livelli per lato (0 = valore predefinito) */
+public class OrderBookRequest extends OperationRequest {
+    private final int depth;
+
+    public OrderBookRequest(String operation, String username, int depth) {
+        super(operation, username);
+        this.depth = depth;
+    }
+
+    public int getDepth() {
+        return depth;
+    }
+}
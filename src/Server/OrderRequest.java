@@ -0,0 +1,39 @@
+package Server;
+
+/* Richiesta di inserimento di un ordine limit, market o stop */
+public class OrderRequest extends OperationRequest {
+    private final int orderId;
+    private final String side;
+    private final int size;
+    private final int price;     // Solo limit
+    private final int stopPrice; // Solo stop
+
+    public OrderRequest(String operation, String username, int orderId, String side, int size, int price, int stopPrice) {
+        super(operation, username);
+        this.orderId = orderId;
+        this.side = side;
+        this.size = size;
+        this.price = price;
+        this.stopPrice = stopPrice;
+    }
+
+    public int getOrderId() {
+        return orderId;
+    }
+
+    public String getSide() {
+        return side;
+    }
+
+    public int getSize() {
+        return size;
+    }
+
+    public int getPrice() {
+        return price;
+    }
+
+    public int getStopPrice() {
+        return stopPrice;
+    }
+}
@@ -0,0 +1,144 @@
+package Server;
+
+import CommonClass.CompraVendita;
+import CommonClass.LatencyHistogram;
+import CommonClass.OrderJournal;
+import CommonClass.PhaseTimer;
+
+import com.google.gson.Gson;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/*
+ * Replay headless di un flusso di ordini registrato attraverso CompraVendita, alla massima velocità:
+ * niente rete, journal, nastro dei trade o notifiche (il book parte vuoto e non viene persistito).
+ * Uso: java Server.ReplayMain <file> [ripetizioni] [passate di warmup]
+ *   file .json nel formato di StoricoOrdini100.json, altrimenti un journal (ad esempio Orders.journal),
+ *   di cui si rigiocano inserimenti, cancellazioni e modifiche nell'ordine originale.
+ * Ogni ripetizione usa orderId nuovi e parte dal book lasciato dalla precedente.
+ * Riporta ordini/s, trade prodotti e percentili di latenza totali e per fase di addOrder
+ */
+public class ReplayMain {
+
+    // Evento da rigiocare
+    private static final class Event {
+        final byte type;   // OrderJournal.NEW, CANCEL o MODIFY
+        final Order order; // Solo per NEW: modello da copiare a ogni ripetizione
+        final int orderId;
+        final int size;
+        final int price;
+
+        Event(byte type, Order order, int orderId, int size, int price) {
+            this.type = type;
+            this.order = order;
+            this.orderId = orderId;
+            this.size = size;
+            this.price = price;
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 1) {
+            System.out.println("Uso: java Server.ReplayMain <file ordini .json | journal> [ripetizioni] [warmup]");
+            return;
+        }
+        int repeat = args.length > 1 ? Integer.parseInt(args[1]) : 1;
+        int warmup = args.length > 2 ? Integer.parseInt(args[2]) : 0;
+
+        List<Event> events = load(args[0]);
+        int maxOrderId = 0;
+        for (Event event : events) {
+            maxOrderId = Math.max(maxOrderId, event.orderId);
+        }
+        System.out.println("Eventi caricati: " + events.size() + " da " + args[0]);
+
+        CompraVendita compraVendita = new CompraVendita(); // Nessun initializeOrderBook: book vuoto in memoria
+        PhaseTimer phases = new PhaseTimer(CompraVendita.ADD_PHASES);
+        LatencyHistogram total = new LatencyHistogram();
+
+        long elapsed;
+        long trades;
+        try {
+            for (int pass = 0; pass < warmup; pass++) {
+                replay(compraVendita, events, pass * (maxOrderId + 1), null);
+            }
+            compraVendita.setPhaseTimer(phases);
+            long tradesBefore = compraVendita.getTradeCount();
+            long start = System.nanoTime();
+            for (int pass = warmup; pass < warmup + repeat; pass++) {
+                replay(compraVendita, events, pass * (maxOrderId + 1), total);
+            }
+            elapsed = System.nanoTime() - start;
+            trades = compraVendita.getTradeCount() - tradesBefore;
+        } finally {
+            compraVendita.setPhaseTimer(null);
+        }
+
+        long count = total.getCount();
+        System.out.printf("Eventi: %d in %.3f s -> %.0f eventi/s%n", count, elapsed / 1e9, count / (elapsed / 1e9));
+        System.out.printf("Trade prodotti: %d (%.0f trade/s)%n", trades, trades / (elapsed / 1e9));
+        System.out.println("Latenza per evento: " + total.summary(1000.0, "us"));
+        for (int i = 0; i < phases.size(); i++) {
+            System.out.println("  addOrder/" + phases.getName(i) + ": " + phases.getHistogram(i).summary(1000.0, "us"));
+        }
+    }
+
+    // Rigioca gli eventi una volta, con orderId spostati di offset
+    private static void replay(CompraVendita compraVendita, List<Event> events, int offset, LatencyHistogram latency) {
+        for (Event event : events) {
+            long start = System.nanoTime();
+            switch (event.type) {
+                case OrderJournal.NEW: {
+                    Order model = event.order;
+                    compraVendita.addOrder(new Order(model.getOrderId() + offset, model.getUserId(), model.getType(),
+                            model.getOrderType(), model.getSize(), model.getPrice(), model.getStopPrice(), model.getTimestamp()));
+                    break;
+                }
+                case OrderJournal.CANCEL: {
+                    Order order = compraVendita.getOrder(event.orderId + offset);
+                    if (order != null) compraVendita.cancelOrder(order.getUserId(), order.getOrderId());
+                    break;
+                }
+                case OrderJournal.MODIFY: {
+                    Order order = compraVendita.getOrder(event.orderId + offset);
+                    if (order != null) compraVendita.modifyOrder(order.getUserId(), order.getOrderId(), event.size, event.price);
+                    break;
+                }
+            }
+            if (latency != null) latency.record(System.nanoTime() - start);
+        }
+    }
+
+    private static List<Event> load(String file) throws IOException {
+        List<Event> events = new ArrayList<>();
+        if (file.endsWith(".json")) {
+            Order[] orders;
+            try (FileReader reader = new FileReader(file)) {
+                orders = new Gson().fromJson(reader, Order[].class);
+            }
+            if (orders != null) {
+                for (Order order : orders) {
+                    if (order.getOrderType() == null || order.getType() == null) continue;
+                    events.add(new Event(OrderJournal.NEW, order, order.getOrderId(), order.getSize(), order.getPrice()));
+                }
+            }
+            return events;
+        }
+
+        // Journal: esecuzioni e attivazioni sono esiti del matching e vengono ricalcolate
+        OrderJournal.scanFile(file, entry -> {
+            switch (entry.getType()) {
+                case OrderJournal.NEW:
+                    events.add(new Event(OrderJournal.NEW, entry.getOrder(), entry.getOrderId(), 0, 0));
+                    break;
+                case OrderJournal.CANCEL:
+                case OrderJournal.MODIFY:
+                    events.add(new Event(entry.getType(), null, entry.getOrderId(), entry.getQuantity(), entry.getPrice()));
+                    break;
+            }
+        });
+        return events;
+    }
+}
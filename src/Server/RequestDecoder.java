@@ -0,0 +1,204 @@
+package Server;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/*
+ * Decodifica in streaming di una richiesta {"operation": ..., "values": {...}} con JsonReader:
+ * i campi vengono letti direttamente nei tipi finali, senza albero JSON né Map intermedie.
+ * "values" può precedere "operation" (il client serializza una mappa senza ordine).
+ * Il campo opzionale "requestId" viene riportato dal server in ogni risposta alla richiesta
+ */
+public class RequestDecoder {
+
+    /**
+     * Decodifica una riga JSON.
+     * @throws IOException se la riga non è JSON valido o un campo ha un tipo errato
+     */
+    public static OperationRequest decode(String line) throws IOException {
+        return decode(new StringReader(line));
+    }
+
+    public static OperationRequest decode(Reader source) throws IOException {
+        JsonReader reader = new JsonReader(source);
+        String operation = null;
+        long requestId = -1;
+        Values values = new Values();
+        try {
+            reader.beginObject();
+            while (reader.hasNext()) {
+                switch (reader.nextName()) {
+                    case "operation":
+                        operation = nextString(reader);
+                        break;
+                    case "requestId":
+                        if (reader.peek() == JsonToken.NULL) {
+                            reader.nextNull();
+                        } else {
+                            requestId = reader.nextLong();
+                        }
+                        break;
+                    case "values":
+                        if (reader.peek() == JsonToken.NULL) {
+                            reader.nextNull();
+                        } else {
+                            readValues(reader, values);
+                        }
+                        break;
+                    default:
+                        reader.skipValue();
+                }
+            }
+            reader.endObject();
+        } catch (IllegalStateException | NumberFormatException e) {
+            throw new IOException("Richiesta non valida: " + e.getMessage(), e);
+        }
+
+        operation = operation == null ? "" : operation.toLowerCase(Locale.ROOT);
+        OperationRequest request = build(operation, values);
+        request.setRequestId(requestId);
+        return request;
+    }
+
+    private static OperationRequest build(String operation, Values values) {
+        switch (operation) {
+            case "register":
+            case "login":
+                return new AuthRequest(operation, values.username, values.password);
+            case "limitorder":
+            case "marketorder":
+            case "stoporder":
+            case "modifyorder":
+                return new OrderRequest(operation, values.username, values.orderId, values.side, values.size, values.price, values.stopPrice);
+            case "cancelorder":
+                return new CancelRequest(operation, values.username, values.orderId);
+            case "updatecredentials":
+                return new UpdateCredentialsRequest(operation, values.username, values.currentPassword, values.newPassword);
+            case "history":
+                return new HistoryRequest(operation, values.username, values.date, values.cursor, values.limit);
+            case "getorderbook":
+                return new OrderBookRequest(operation, values.username, values.depth);
+            case "getcandles":
+                return new CandleRequest(operation, values.username, values.timeframe, values.from, values.to, values.limit);
+            case "batchorders": {
+                List<OrderRequest> orders = null;
+                if (values.orders != null) {
+                    orders = new ArrayList<>(values.orders.size());
+                    for (Values order : values.orders) {
+                        orders.add(new OrderRequest(batchOperation(order.type), values.username, order.orderId, order.side, order.size, order.price, order.stopPrice));
+                    }
+                }
+                return new BatchRequest(operation, values.username, orders);
+            }
+            default:
+                return new OperationRequest(operation, values.username);
+        }
+    }
+
+    // Campi di "values" di tutte le operazioni, letti prima di sapere quale operazione è
+    private static final class Values {
+        String username;
+        String password;
+        String currentPassword;
+        String newPassword;
+        String side;
+        String date;
+        String type;          // Tipo di un ordine dentro "orders"
+        String timeframe;
+        List<Values> orders;  // Solo batchorders
+        int orderId;
+        int size;
+        int price;
+        int stopPrice;
+        int depth;
+        int cursor;
+        int limit;
+        long from;
+        long to;
+    }
+
+    private static void readValues(JsonReader reader, Values values) throws IOException {
+        reader.beginObject();
+        while (reader.hasNext()) {
+            switch (reader.nextName()) {
+                case "username": values.username = nextString(reader); break;
+                case "password": values.password = nextString(reader); break;
+                case "currentPassword": values.currentPassword = nextString(reader); break;
+                case "newPassword": values.newPassword = nextString(reader); break;
+                case "side": values.side = nextString(reader); break;
+                case "date": values.date = nextString(reader); break;
+                case "orderId": values.orderId = nextNumber(reader); break;
+                case "size": values.size = nextNumber(reader); break;
+                // I prezzi possono arrivare come decimali: si tronca come in passato
+                case "price": values.price = nextNumber(reader); break;
+                case "stopPrice": values.stopPrice = nextNumber(reader); break;
+                case "depth": values.depth = nextNumber(reader); break;
+                case "cursor": values.cursor = nextNumber(reader); break;
+                case "limit": values.limit = nextNumber(reader); break;
+                case "timeframe": values.timeframe = nextString(reader); break;
+                case "from": values.from = nextLong(reader); break;
+                case "to": values.to = nextLong(reader); break;
+                case "type": values.type = nextString(reader); break;
+                case "orders": values.orders = readOrders(reader); break;
+                default: reader.skipValue();
+            }
+        }
+        reader.endObject();
+    }
+
+    private static List<Values> readOrders(JsonReader reader) throws IOException {
+        if (reader.peek() == JsonToken.NULL) {
+            reader.nextNull();
+            return null;
+        }
+        List<Values> orders = new ArrayList<>();
+        reader.beginArray();
+        while (reader.hasNext()) {
+            Values order = new Values();
+            readValues(reader, order);
+            orders.add(order);
+        }
+        reader.endArray();
+        return orders;
+    }
+
+    // "limit" o "limitorder" -> "limitorder", come le operazioni a singolo ordine
+    private static String batchOperation(String type) {
+        if (type == null) return "";
+        type = type.toLowerCase(Locale.ROOT);
+        return type.endsWith("order") ? type : type + "order";
+    }
+
+    private static String nextString(JsonReader reader) throws IOException {
+        if (reader.peek() == JsonToken.NULL) {
+            reader.nextNull();
+            return null;
+        }
+        return reader.nextString();
+    }
+
+    // Numero (anche tra virgolette) troncato a int, 0 se assente
+    private static int nextNumber(JsonReader reader) throws IOException {
+        if (reader.peek() == JsonToken.NULL) {
+            reader.nextNull();
+            return 0;
+        }
+        return (int) reader.nextDouble();
+    }
+
+    // Come nextNumber per valori a 64 bit (timestamp in millisecondi)
+    private static long nextLong(JsonReader reader) throws IOException {
+        if (reader.peek() == JsonToken.NULL) {
+            reader.nextNull();
+            return 0;
+        }
+        return (long) reader.nextDouble();
+    }
+}
@@ -1,6 +1,8 @@
 package Server;
 
 import CommonClass.CompraVendita;
+import CommonClass.MarketDataFeed;
+import CommonClass.Metrics;
 
 import com.google.gson.Gson;
 import java.io.File;
@@ -14,8 +16,14 @@ import java.util.concurrent.Executors;
 public class ServerMain {
     private static final File connessione = new File("src/Document/ConnectionServer.json");
     private int port;
+    private boolean engineMode;
+    private int ringSize;
+    private int snapshotInterval;
+    private String frontEnd;
+    private int udpPort = 6000;
+    private ConnectionConfig config;
     private final SessionManager sessionManager;
-    private final ExecutorService threadPool;
+    private ExecutorService threadPool;
     private static CompraVendita compraVendita;
 
     // Costruttore
@@ -28,14 +36,25 @@ public class ServerMain {
 
             try (FileReader fr = new FileReader(connessione)) {
                 ConnectionConfig connection = new Gson().fromJson(fr, ConnectionConfig.class);
+                this.config = connection;
                 this.port = connection.getPort();
+                this.engineMode = connection.isEngine();
+                this.ringSize = connection.getRingSize();
+                this.snapshotInterval = connection.getSnapshotIntervalSeconds();
+                this.frontEnd = connection.getFrontEnd();
+                this.udpPort = connection.getUdpPort();
+                this.threadPool = "virtual".equalsIgnoreCase(this.frontEnd)
+                        ? newVirtualThreadExecutor()
+                        : Executors.newFixedThreadPool(connection.getWorkerThreads());
             }
         } catch (Exception e) {
             e.printStackTrace();
         }
 
         this.sessionManager = new SessionManager();
-        this.threadPool = Executors.newFixedThreadPool(10);
+        if (this.threadPool == null) {
+            this.threadPool = Executors.newFixedThreadPool(10);
+        }
 
         Thread sessionTimeoutChecker = new Thread(new SessionTimeoutChecker());
         sessionTimeoutChecker.setDaemon(true);
@@ -44,6 +63,10 @@ public class ServerMain {
 
     // Avvio del server
     public void startServer() {
+        if ("nio".equalsIgnoreCase(frontEnd)) {
+            startNioServer();
+            return;
+        }
         try (ServerSocket serverSocket = new ServerSocket(this.port)) {
             System.out.println("Server in ascolto sulla porta: " + this.port);
 
@@ -60,15 +83,44 @@ public class ServerMain {
         }
     }
 
+    /**
+     * Un virtual thread per connessione: nessun limite fisso sulle connessioni concorrenti.
+     * Il metodo è cercato via reflection per compilare anche con JDK precedenti al 21,
+     * dove si ripiega su un pool di thread creati on demand
+     */
+    private static ExecutorService newVirtualThreadExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            System.out.println("Virtual thread non disponibili su questa JVM, uso thread creati on demand");
+            return Executors.newCachedThreadPool();
+        }
+    }
+
+    // Avvio del front end NIO: il pool esegue solo le richieste complete, non attende sulle socket
+    private void startNioServer() {
+        try {
+            new NioServer(this.port, sessionManager, compraVendita, threadPool).start();
+        } catch (IOException e) {
+            System.out.println("Errore avvenuto durante l'avvio del server: " + e.getMessage());
+            e.printStackTrace();
+        }
+    }
+
     public static void main(String[] args) {
         try {
             ServerMain server = new ServerMain();
 
-            // Avvia il listener per le registrazioni client in un thread separato
-            new Thread(() -> compraVendita.listenForRegistrations()).start();
+            // Notifiche UDP asincrone: registrazioni dei client e invio delle esecuzioni sullo stesso canale
+            compraVendita.startNotifier(server.udpPort);
+
+            /* Anagrafica utenti in memoria con scrittura differita su Users.json */
+            UserDirectory.load();
+            UserDirectory.startFlusher(1000);
 
             /* Carica DataBase */
             compraVendita.initializeOrderBook();
+            compraVendita.setJournalSync(server.config != null ? server.config.getJournalSyncMillis() : 0);
 
             /* Legge ultimo ID degli ordini e lo salva in memoria */
 
@@ -76,6 +128,32 @@ public class ServerMain {
             /* Chiamo CompraVendita.match */
             compraVendita.matching();
 
+            /* Market data multicast a partire dal book ripristinato */
+            if (server.config != null && server.config.getMarketDataGroup() != null) {
+                MarketDataFeed feed = new MarketDataFeed(server.config.getMarketDataGroup(), server.config.getMarketDataPort(),
+                        server.config.getMarketDataInterface(), server.config.getMarketDataTtl());
+                compraVendita.startMarketData(feed, server.config.getMarketDataSnapshotSeconds());
+            }
+
+            /* Da qui in poi il book viene modificato solo dal thread del motore */
+            if (server.engineMode) {
+                compraVendita.startEngine(server.ringSize);
+            }
+
+            /* Ripubblica la vista della profondità rimasta indietro dopo una raffica di operazioni */
+            compraVendita.startDepthRefresh();
+
+            /* Snapshot periodici del book per un riavvio rapido */
+            compraVendita.startSnapshots(server.snapshotInterval);
+
+            /* Metriche: operazione stats, JMX e, se configurato, endpoint Prometheus */
+            compraVendita.registerMetrics();
+            Metrics.gauge("sessions.active", SessionManager::count);
+            Metrics.registerMBean();
+            if (server.config != null && server.config.getMetricsPort() > 0) {
+                Metrics.startHttpServer(server.config.getMetricsBindAddress(), server.config.getMetricsPort());
+            }
+
             /* Sleep 2000ms */
             Thread.sleep(2000);
 
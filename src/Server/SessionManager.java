@@ -55,6 +55,11 @@ public class SessionManager {
         return null;
     }
 
+    /* Numero di sessioni attive */
+    public static int count() {
+        return activeSessions.size();
+    }
+
     public String[] getAllSessions() {
         return activeSessions.keySet().toArray(new String[0]);
     }
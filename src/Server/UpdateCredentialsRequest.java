@@ -0,0 +1,21 @@
+package Server;
+
+/* Richiesta di cambio password */
+public class UpdateCredentialsRequest extends OperationRequest {
+    private final String currentPassword;
+    private final String newPassword;
+
+    public UpdateCredentialsRequest(String operation, String username, String currentPassword, String newPassword) {
+        super(operation, username);
+        this.currentPassword = currentPassword;
+        this.newPassword = newPassword;
+    }
+
+    public String getCurrentPassword() {
+        return currentPassword;
+    }
+
+    public String getNewPassword() {
+        return newPassword;
+    }
+}
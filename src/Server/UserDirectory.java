@@ -0,0 +1,138 @@
+package Server;
+
+import CommonClass.MetricTimer;
+import CommonClass.Metrics;
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.reflect.TypeToken;
+
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.lang.reflect.Type;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/*
+ * Anagrafica degli utenti residente in memoria, indicizzata per username normalizzato.
+ * Users.json viene letto una sola volta all'avvio e riscritto in batch da un thread
+ * di write-behind solo quando ci sono modifiche
+ */
+public class UserDirectory {
+    private static final File usersPath = new File("src/Document/Users.json");
+    private static final Gson gson = new GsonBuilder().setPrettyPrinting().create();
+
+    // username normalizzato -> {username, passwordHash, salt}
+    private static final Map<String, Map<String, String>> users = new ConcurrentHashMap<>();
+    private static final AtomicBoolean dirty = new AtomicBoolean(false);
+    private static ScheduledExecutorService flusher;
+    private static final MetricTimer flushTimer = Metrics.timer("io.users.flush");
+
+    /**
+     * Carica gli utenti da Users.json.
+     */
+    public static void load() throws IOException {
+        if (!usersPath.exists()) {
+            System.out.println("Users.json non trovato, anagrafica vuota");
+            return;
+        }
+        try (Reader reader = new FileReader(usersPath)) {
+            Type listType = new TypeToken<List<Map<String, String>>>() {}.getType();
+            List<Map<String, String>> list = gson.fromJson(reader, listType);
+            if (list != null) {
+                for (Map<String, String> user : list) {
+                    if (user.get("username") != null) {
+                        users.put(normalize(user.get("username")), user);
+                    }
+                }
+            }
+        }
+        System.out.println("Utenti caricati: " + users.size());
+    }
+
+    /**
+     * Avvia il thread che persiste le modifiche ogni intervalMillis, più un ultimo flush alla chiusura.
+     */
+    public static void startFlusher(long intervalMillis) {
+        flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "users-flusher");
+            thread.setDaemon(true);
+            return thread;
+        });
+        flusher.scheduleWithFixedDelay(UserDirectory::flush, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+        Runtime.getRuntime().addShutdownHook(new Thread(UserDirectory::flush, "users-flush-on-exit"));
+    }
+
+    /**
+     * Restituisce l'utente (confronto case-insensitive), null se non esiste.
+     */
+    public static Map<String, String> get(String username) {
+        return username == null ? null : users.get(normalize(username));
+    }
+
+    /**
+     * Registra un nuovo utente.
+     * @return false se lo username (case-insensitive) è già presente
+     */
+    public static boolean register(String username, String passwordHash, String salt) {
+        Map<String, String> user = new HashMap<>();
+        user.put("username", username);
+        user.put("passwordHash", passwordHash);
+        user.put("salt", salt);
+        if (users.putIfAbsent(normalize(username), user) != null) {
+            return false;
+        }
+        dirty.set(true);
+        return true;
+    }
+
+    /**
+     * Sostituisce hash e salt della password di un utente esistente.
+     */
+    public static void updatePassword(String username, String passwordHash, String salt) {
+        users.computeIfPresent(normalize(username), (key, old) -> {
+            Map<String, String> user = new HashMap<>(old);
+            user.put("passwordHash", passwordHash);
+            user.put("salt", salt);
+            return user;
+        });
+        dirty.set(true);
+    }
+
+    /**
+     * Scrive l'anagrafica su disco se è cambiata dall'ultimo flush.
+     */
+    public static synchronized void flush() {
+        if (!dirty.getAndSet(false)) return;
+        List<Map<String, String>> list = new ArrayList<>(users.values());
+        File temp = new File(usersPath.getPath() + ".tmp");
+        long start = flushTimer.start();
+        try {
+            try (Writer writer = new FileWriter(temp)) {
+                gson.toJson(list, writer);
+            }
+            Files.move(temp.toPath(), usersPath.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            flushTimer.stop(start);
+        } catch (IOException e) {
+            dirty.set(true); // Riprova al prossimo giro
+            System.err.println("Errore nella scrittura del file utenti: " + e.getMessage());
+        }
+    }
+
+    private static String normalize(String username) {
+        return username.toLowerCase(Locale.ROOT);
+    }
+}